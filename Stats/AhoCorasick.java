@@ -0,0 +1,150 @@
+import java.util.List;
+
+/** Counts many literal strings in a single pass over a text
+ *  <p>An Aho-Corasick automaton is built once from all the patterns. Scanning the
+ *  text then costs time linear in its length plus the number of matches, however many
+ *  patterns there are.</p>
+ *  <p>Counts are the same as a find() loop over each pattern quoted as a regex on its own:
+ *  matches of one pattern do not overlap. With wholeWord a match only counts if it does not
+ *  split a word, see SplitsWord.</p>
+ */
+class AhoCorasick{
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final boolean caseSensitive;
+    /** Child of each node, keyed by node number and character */
+    private final LongIntMap children = new LongIntMap(64);
+    private final IntList parent = new IntList();
+    private final IntList edge = new IntList();
+    private final IntList depth = new IntList();
+    private final IntList terminal = new IntList();
+    /** Node reached by the longest proper suffix of each node */
+    private int[] fail;
+    /** Nearest terminal node among the proper suffixes of each node */
+    private int[] output;
+    /** Node ending each pattern, patterns with the same text share a node */
+    private final int[] patternNode;
+
+    /** Builds the automaton
+     * @param patterns      The strings to search for, none of which may be empty
+     * @param caseSensitive Should matching be case sensitive? Folding matches regex case insensitive matching
+     */
+    AhoCorasick(List<String> patterns, boolean caseSensitive){
+        this.caseSensitive = caseSensitive;
+        AddNode(NONE, 0, 0);
+        patternNode = new int[patterns.size()];
+        for(int p = 0; p < patterns.size(); p++){
+            String pattern = patterns.get(p);
+            if(pattern == null || pattern.isEmpty()){ throw new Error("Cannot search for an empty pattern"); }
+            int node = ROOT;
+            for(int i = 0; i < pattern.length(); i++){
+                char c = Fold(pattern.charAt(i));
+                int child = children.Get(Key(node, c), NONE);
+                if(child == NONE){
+                    child = AddNode(node, c, i + 1);
+                    children.Put(Key(node, c), child);
+                }
+                node = child;
+            }
+            terminal.Set(node, 1);
+            patternNode[p] = node;
+        }
+        LinkSuffixes();
+    }
+
+    /** Counts every pattern in the text
+     * @param  in        The text to search
+     * @param  wholeWord Should only matches that are whole words be counted?
+     * @return           The count for each pattern, in the order the patterns were given
+     */
+    public int[] Count(CharSequence in, boolean wholeWord){
+        int nodes = depth.Size();
+        int[] nodeCount = new int[nodes];
+        int[] nextStart = new int[nodes];
+        int node = ROOT;
+        for(int i = 0; i < in.length(); i++){
+            char c = Fold(in.charAt(i));
+            int next;
+            while((next = children.Get(Key(node, c), NONE)) == NONE && node != ROOT){ node = fail[node]; }
+            node = next == NONE ? ROOT : next;
+            int end = i + 1;
+            for(int t = terminal.Get(node) == 1 ? node : output[node]; t != NONE; t = output[t]){
+                int start = end - depth.Get(t);
+                if(start < nextStart[t]){ continue; }
+                if(wholeWord && (SplitsWord(in, start) || SplitsWord(in, end))){ continue; }
+                nextStart[t] = end;
+                nodeCount[t]++;
+            }
+        }
+        int[] counts = new int[patternNode.length];
+        for(int p = 0; p < counts.length; p++){ counts[p] = nodeCount[patternNode[p]]; }
+        return counts;
+    }
+
+    /** Whether a pattern can be matched literally, as it holds no regex metacharacters */
+    static boolean IsLiteral(String pattern){
+        if(pattern == null || pattern.isEmpty()){ return false; }
+        for(int i = 0; i < pattern.length(); i++){
+            if("\\^$.|?*+()[]{}".indexOf(pattern.charAt(i)) >= 0){ return false; }
+        }
+        return true;
+    }
+
+    /** Sets the fail and output links of every node, shallowest nodes first */
+    private void LinkSuffixes(){
+        int nodes = depth.Size();
+        fail = new int[nodes];
+        output = new int[nodes];
+        output[ROOT] = NONE;
+        for(int node : ByDepth()){
+            if(node == ROOT){ continue; }
+            int up = parent.Get(node);
+            char c = (char) edge.Get(node);
+            int f = ROOT;
+            if(up != ROOT){
+                f = fail[up];
+                int next;
+                while((next = children.Get(Key(f, c), NONE)) == NONE && f != ROOT){ f = fail[f]; }
+                f = next == NONE ? ROOT : next;
+            }
+            fail[node] = f;
+            output[node] = terminal.Get(f) == 1 ? f : output[f];
+        }
+    }
+
+    /** Gets every node in order of depth, by counting sort */
+    private int[] ByDepth(){
+        int nodes = depth.Size();
+        int maxDepth = 0;
+        for(int i = 0; i < nodes; i++){ maxDepth = Math.max(maxDepth, depth.Get(i)); }
+        int[] starts = new int[maxDepth + 2];
+        for(int i = 0; i < nodes; i++){ starts[depth.Get(i) + 1]++; }
+        for(int d = 1; d < starts.length; d++){ starts[d] += starts[d - 1]; }
+        int[] order = new int[nodes];
+        for(int i = 0; i < nodes; i++){ order[starts[depth.Get(i)]++] = i; }
+        return order;
+    }
+
+    private int AddNode(int parentNode, int c, int nodeDepth){
+        parent.Add(parentNode);
+        edge.Add(c);
+        depth.Add(nodeDepth);
+        terminal.Add(0);
+        return depth.Size() - 1;
+    }
+
+    private char Fold(char c){ return caseSensitive ? c : Stats.Fold(c); }
+
+    private static long Key(int node, char c){ return ((long) node << 16) | c; }
+
+    /** Whether the index in the text falls between two word characters, as used by the regex '\\b'.
+     *  A match starting or ending there would be part of a longer word. For patterns that start and end
+     *  with word characters this is the same test as '\\b', and patterns that start or end with
+     *  anything else can sit next to any character */
+    static boolean SplitsWord(CharSequence in, int index){
+        return index > 0 && index < in.length()
+            && Stats.IsWordChar(Character.codePointBefore(in, index)) && Stats.IsWordChar(Character.codePointAt(in, index));
+    }
+}
@@ -0,0 +1,331 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** A file held as its UTF-8 bytes, with long offsets, for files too large for Stats
+ *  <p>Stats decodes a file into a single String, so is limited to about 2G chars and uses two bytes
+ *  for each char of most non-Latin text. A ByteDocument keeps the bytes as they are, either memory
+ *  mapped off the heap or copied onto it, in windows of 1 GB. Lines, words and counts are found by
+ *  scanning the bytes directly, using the same line terminators, whitespace and counts as Stats.</p>
+ *  <p>To keep the indexes compact only the offset of every LINE_STRIDE'th line and WORD_STRIDE'th word
+ *  is kept, the others are found by scanning forward from the one before. Text is only decoded
+ *  into a String when it is asked for.</p>
+ *  <p>Counts match Stats for valid UTF-8. In malformed input each stray continuation byte is not
+ *  counted, where Stats would count a replacement character.</p>
+ */
+class ByteDocument{
+
+    /** Number of lines between each line offset kept */
+    static final int LINE_STRIDE = 64;
+    /** Number of words between each word offset kept */
+    static final int WORD_STRIDE = 64;
+    /** Size of the parts of the file decoded at once when counting characters */
+    private static final long DECODE_BLOCK = 1L << 26;
+    private static final int WINDOW_BITS = 30;
+    private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+
+    // the kinds of character, see CharAt
+    private static final int TEXT = 0;
+    private static final int SPACE = 1;
+    private static final int LINE_END = 2;
+
+    private final ByteBuffer[] windows;
+    private final long size;
+    private final int lineStride;
+    private final int wordStride;
+    private final long[] lineStarts;
+    private final long[] wordStarts;
+    private final long lineCount;
+    private final long wordCount;
+    private final long charCount;
+    private CharFrequency charFrequency;
+
+    /** Reads in a file, memory mapping it or copying it onto the heap
+     * @param filePath The path of the file that you wish to read in
+     * @param onHeap   Should the bytes be copied onto the heap? If not they are memory mapped, and stay in the OS page cache
+     */
+    ByteDocument(String filePath, boolean onHeap) throws IOException{ this(filePath, onHeap, LINE_STRIDE, WORD_STRIDE); }
+
+    /** Reads in a file, keeping the offset of only one in so many lines and words */
+    ByteDocument(String filePath, boolean onHeap, int lineStride, int wordStride) throws IOException{
+        if(lineStride < 1 || wordStride < 1){ throw new Error("Strides must be at least 1"); }
+        this.lineStride = lineStride;
+        this.wordStride = wordStride;
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)){
+            size = channel.size();
+            windows = new ByteBuffer[(int) ((size + WINDOW_MASK) >>> WINDOW_BITS)];
+            for(int w = 0; w < windows.length; w++){
+                long position = (long) w << WINDOW_BITS;
+                long length = Math.min(WINDOW_MASK + 1, size - position);
+                if(!onHeap){
+                    windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    continue;
+                }
+                windows[w] = ByteBuffer.allocate((int) length);
+                while(windows[w].hasRemaining() && channel.read(windows[w], position + windows[w].position()) >= 0){}
+                if(windows[w].hasRemaining()){ throw new IOException("File shrank while being read"); }
+            }
+        }
+        LongList lines = new LongList();
+        LongList words = new LongList();
+        long lineNumber = 0;
+        long wordNumber = 0;
+        long chars = 0;
+        boolean inWord = false;
+        boolean lineOpen = false;
+        // how many more lines and words until the next one whose offset is kept
+        int untilLineKept = 1;
+        int untilWordKept = 1;
+        // each window is scanned on its own, only looking across into the next for line terminators of more than one byte
+        int carried = 0;
+        for(int w = 0; w < windows.length; w++){
+            ByteBuffer window = windows[w];
+            long base = (long) w << WINDOW_BITS;
+            int limit = window.limit();
+            int i = carried;
+            while(i < limit){
+                byte b = window.get(i);
+                int kind = TEXT;
+                int length = 1;
+                if(b == '\n'){ kind = LINE_END; }
+                else if(b == ' ' || b == '\t' || b == 0x0B || b == '\f'){ kind = SPACE; }
+                else if(b == '\r' || b == (byte) 0xC2 || b == (byte) 0xE2){
+                    int c = CharAt(base + i);
+                    kind = c >> 2;
+                    length = c & 3;
+                }
+                if(!lineOpen){
+                    if(--untilLineKept == 0){
+                        lines.Add(base + i);
+                        untilLineKept = lineStride;
+                    }
+                    lineOpen = true;
+                }
+                if(kind == TEXT){
+                    if(!inWord){
+                        if(--untilWordKept == 0){
+                            words.Add(base + i);
+                            untilWordKept = wordStride;
+                        }
+                        wordNumber++;
+                        inWord = true;
+                    }
+                    chars += (b & 0xC0) == 0x80 ? 0 : (b & 0xF8) == 0xF0 ? 2 : 1;
+                }
+                else{
+                    inWord = false;
+                    if(kind == LINE_END){
+                        lineNumber++;
+                        lineOpen = false;
+                    }
+                }
+                i += length;
+            }
+            carried = i - limit;
+        }
+        if(lineOpen){ lineNumber++; }
+        lineStarts = lines.ToArray();
+        wordStarts = words.ToArray();
+        lineCount = lineNumber;
+        wordCount = wordNumber;
+        charCount = chars;
+    }
+
+    /** Gets the size of the file in bytes */
+    public long ByteCount(){ return size; }
+
+    /** Gets the total number of non-whitespace characers, counted as Java chars as Stats does */
+    public long CharCount(){ return charCount; }
+
+    /** Gets the total number of words in the document*/
+    public long WordCount(){ return wordCount; }
+
+    /** Gets the total number of lines in the document*/
+    public long LineCount(){ return lineCount; }
+
+    /** Gets the average length of all words in the document*/
+    public float AvgWordLen(){ return (float) charCount/wordCount; }
+
+    /** Gets the byte offset of the start of the given line number
+     * @param  lineNumber The line number, or LineCount() for the end of the file
+     * @return            The offset in the file
+     */
+    public long GetLineIndex(long lineNumber){
+        if(lineNumber < 0 || lineNumber > lineCount){ throw new Error("Line " + lineNumber + " is outside of document of " + lineCount + " lines"); }
+        if(lineNumber == lineCount){ return size; }
+        long p = lineStarts[(int) (lineNumber / lineStride)];
+        for(long k = lineNumber % lineStride; k > 0; k--){ p = NextLineStart(p); }
+        return p;
+    }
+
+    /** Gets the byte offset of the start of the given word number
+     * @param  wordNumber The word number, or WordCount() for the end of the file
+     * @return            The offset in the file
+     */
+    public long GetWordIndex(long wordNumber){
+        if(wordNumber < 0 || wordNumber > wordCount){ throw new Error("Word " + wordNumber + " is outside of document of " + wordCount + " words"); }
+        if(wordNumber == wordCount){ return size; }
+        long p = wordStarts[(int) (wordNumber / wordStride)];
+        for(long k = wordNumber % wordStride; k > 0; k--){ p = NextWordStart(p); }
+        return p;
+    }
+
+    /** Gets the number of the line that a byte offset is on
+     * @param  offset The offset in the file
+     * @return        The line number
+     */
+    public long LineOf(long offset){
+        if(offset < 0 || offset >= size){ throw new Error("Attempting to read beyond document bounds"); }
+        int sample = Floor(lineStarts, offset);
+        long line = (long) sample * lineStride;
+        for(long p = NextLineStart(lineStarts[sample]); p <= offset; p = NextLineStart(p)){ line++; }
+        return line;
+    }
+
+    /** Gets the number of the word that a byte offset is in, or the whitespace following it
+     * @param  offset The offset in the file
+     * @return        The word number, -1 if the offset is before the first word
+     */
+    public long WordOf(long offset){
+        if(offset < 0 || offset >= size){ throw new Error("Attempting to read beyond document bounds"); }
+        if(wordCount == 0 || offset < wordStarts[0]){ return -1; }
+        int sample = Floor(wordStarts, offset);
+        long word = (long) sample * wordStride;
+        for(long p = NextWordStart(wordStarts[sample]); p <= offset; p = NextWordStart(p)){ word++; }
+        return word;
+    }
+
+    /** Gets the contents between the given line numbers, as Stats.GetStringFromLine does
+     * @param  startLineNumber The line number to start at (0 is the first line)
+     * @param  endLineNumber   The line number to end at (finishes at the start of that line, or at the end of the document if it is LineCount())
+     * @return                 The string between the two provided points in the document
+     */
+    public String GetStringFromLine(long startLineNumber, long endLineNumber){
+        if(startLineNumber > endLineNumber || endLineNumber < 0 || startLineNumber < 0 || endLineNumber > lineCount){ return null; }
+        return TrimEnd(GetStringFromBytes(GetLineIndex(startLineNumber), GetLineIndex(endLineNumber)));
+    }
+
+    /** Gets the contents between the given word numbers, as Stats.GetStringFromWord does
+     * @param  startWordNumber The word number to start at (0 is the first word)
+     * @param  endWordNumber   The word number to end at (finishes at the start of that word, or at the end of the document if it is WordCount())
+     * @return                 The string between the two provided points in the document
+     */
+    public String GetStringFromWord(long startWordNumber, long endWordNumber){
+        if(startWordNumber > endWordNumber || endWordNumber < 0 || startWordNumber < 0 || endWordNumber > wordCount){ return null; }
+        return TrimEnd(GetStringFromBytes(GetWordIndex(startWordNumber), GetWordIndex(endWordNumber)));
+    }
+
+    /** Decodes part of the file, with every line terminator made a single '\n' as in a Stats document
+     * @param  startIndex The byte offset to start at, which must be the start of a character
+     * @param  endIndex   The byte offset to end at, which must be the end of a character
+     * @return            The decoded text
+     */
+    public String GetStringFromBytes(long startIndex, long endIndex){
+        if(startIndex < 0 || endIndex > size || startIndex > endIndex){ throw new Error("Attempting to read beyond document bounds"); }
+        if(endIndex - startIndex >= Integer.MAX_VALUE){ throw new Error("Text is too large to be held as a single String"); }
+        byte[] bytes = new byte[(int) (endIndex - startIndex)];
+        for(int at = 0; at < bytes.length; ){
+            long p = startIndex + at;
+            ByteBuffer window = windows[(int) (p >>> WINDOW_BITS)];
+            int offset = (int) (p & WINDOW_MASK);
+            int length = Math.min(bytes.length - at, window.limit() - offset);
+            window.get(offset, bytes, at, length);
+            at += length;
+        }
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        StringBuilder ret = new StringBuilder(text.length());
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(!Stats.IsLineTerminator(c)){ ret.append(c); }
+            else if(c != '\n' || i == 0 || text.charAt(i - 1) != '\r'){ ret.append('\n'); }
+        }
+        return ret.toString();
+    }
+
+    /** Gets how often each character is used in the document, decoding it a block of lines at a time the first time it is asked for */
+    public synchronized CharFrequency GetCharFrequency(){
+        if(charFrequency != null){ return charFrequency; }
+        CharFrequency frequency = new CharFrequency();
+        for(long from = 0; from < size; ){
+            long to = size - from <= DECODE_BLOCK ? size : NextLineStart(from + DECODE_BLOCK);
+            String text = GetStringFromBytes(from, to);
+            frequency.Add(text, 0, text.length());
+            from = to;
+        }
+        charFrequency = frequency;
+        return charFrequency;
+    }
+
+    /** Sketches the document's tokens in one pass, decoding it a block of lines at a time, see Stats.GetSketch
+     * @param  memoryBytes   The memory the sketch may use in bytes, at least Sketch.MIN_MEMORY
+     * @param  caseSensitive Should tokens differing only by case be counted separately?
+     * @return               The approximate distinct token count, token counts and most frequent tokens
+     */
+    public Sketch GetSketch(long memoryBytes, boolean caseSensitive){
+        Sketch sketch = new Sketch(memoryBytes, caseSensitive);
+        for(long from = 0; from < size; ){
+            long to = size - from <= DECODE_BLOCK ? size : NextLineStart(from + DECODE_BLOCK);
+            String text = GetStringFromBytes(from, to);
+            sketch.Add(text, 0, text.length());
+            from = to;
+        }
+        return sketch;
+    }
+
+    /** Finds the most common non-whitespace character in the document, see Stats.MostCommonCharacter */
+    public String MostCommonCharacter(boolean caseSensitive){ return GetCharFrequency().MostCommon(caseSensitive); }
+
+    private byte Get(long p){ return windows[(int) (p >>> WINDOW_BITS)].get((int) (p & WINDOW_MASK)); }
+
+    /** Gets the kind of character at a byte offset and how many bytes it takes, packed as kind << 2 | length.
+     *  Every byte of a character that is not a line terminator is TEXT of length 1 */
+    private int CharAt(long p){
+        byte b = Get(p);
+        if(b == '\n'){ return LINE_END << 2 | 1; }
+        if(b == '\r'){ return LINE_END << 2 | (p + 1 < size && Get(p + 1) == '\n' ? 2 : 1); }
+        if(b == ' ' || b == '\t' || b == 0x0B || b == '\f'){ return SPACE << 2 | 1; }
+        // next line, then line separator and paragraph separator
+        if(b == (byte) 0xC2 && p + 1 < size && Get(p + 1) == (byte) 0x85){ return LINE_END << 2 | 2; }
+        if(b == (byte) 0xE2 && p + 2 < size && Get(p + 1) == (byte) 0x80 && (Get(p + 2) == (byte) 0xA8 || Get(p + 2) == (byte) 0xA9)){
+            return LINE_END << 2 | 3;
+        }
+        return TEXT << 2 | 1;
+    }
+
+    /** Gets the offset after the next line terminator, or the end of the file if there is none */
+    private long NextLineStart(long p){
+        while(p < size){
+            int c = CharAt(p);
+            p += c & 3;
+            if(c >> 2 == LINE_END){ return p; }
+        }
+        return size;
+    }
+
+    /** Gets the offset of the start of the next word, or the end of the file if there is none */
+    private long NextWordStart(long p){
+        while(p < size && CharAt(p) >> 2 == TEXT){ p++; }
+        while(p < size){
+            int c = CharAt(p);
+            if(c >> 2 == TEXT){ return p; }
+            p += c & 3;
+        }
+        return size;
+    }
+
+    /** Gets the position of the last offset that is not after the given one */
+    private static int Floor(long[] offsets, long offset){
+        int found = Arrays.binarySearch(offsets, offset);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    private static String TrimEnd(String s){
+        int end = s.length();
+        while(end > 0 && Stats.IsWhitespace(s.charAt(end - 1))){ end--; }
+        return s.substring(0, end);
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** A histogram of the characters used in a text, built in a single pass
+ *  <p>Counts are kept per code point, so a surrogate pair is one character. Characters
+ *  in the Basic Multilingual Plane are counted in a primitive array, the rare
+ *  supplementary characters in a map. Whitespace is not counted.</p>
+ *  <p>Case insensitive queries fold each character with Character.toLowerCase.</p>
+ */
+class CharFrequency{
+
+    private final int[] bmp = new int[Character.MAX_VALUE + 1];
+    private final HashMap<Integer, Integer> supplementary = new HashMap<>();
+    /** Every character counted, in the order they first appear */
+    private final IntList order = new IntList();
+
+    /** Creates an empty histogram, see Add */
+    CharFrequency(){}
+
+    /** Counts every character of a text */
+    CharFrequency(CharSequence text){ Add(text, 0, text.length()); }
+
+    /** Counts every character of part of a text
+     * @param text  The text
+     * @param start The index in text to start at
+     * @param end   The index in text to stop before
+     */
+    void Add(CharSequence text, int start, int end){
+        for(int i = start; i < end; ){
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if(!Character.isWhitespace(cp)){ Add(cp, 1); }
+        }
+    }
+
+    /** Takes away the characters of part of a text, which must be the last text added.
+     *  Characters no longer used are forgotten, so the order is as if the text had never been added
+     * @param text  The text
+     * @param start The index in text to start at
+     * @param end   The index in text to stop before
+     */
+    void Remove(CharSequence text, int start, int end){
+        for(int i = start; i < end; ){
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if(Character.isWhitespace(cp)){ continue; }
+            if(cp <= Character.MAX_VALUE){ bmp[cp]--; }
+            else{ supplementary.merge(cp, -1, Integer::sum); }
+        }
+        // only characters first seen in the removed text can have run out, and they were the last to be seen
+        while(order.Size() > 0 && Count(order.Last()) == 0){
+            supplementary.remove(order.Last());
+            order.RemoveLast();
+        }
+    }
+
+    /** Adds the counts of another histogram to this one, for totals over several texts */
+    public void Add(CharFrequency other){
+        for(int i = 0; i < other.order.Size(); i++){
+            int cp = other.order.Get(i);
+            Add(cp, other.Count(cp));
+        }
+    }
+
+    /** Gets the number of times a character appears
+     * @param codePoint The character
+     */
+    public int Count(int codePoint){
+        if(codePoint <= Character.MAX_VALUE){ return bmp[codePoint]; }
+        return supplementary.getOrDefault(codePoint, 0);
+    }
+
+    /** Gets the number of times a character appears
+     * @param codePoint     The character
+     * @param caseSensitive Should characters differing only by case be counted together?
+     */
+    public int Count(int codePoint, boolean caseSensitive){
+        if(caseSensitive){ return Count(codePoint); }
+        int folded = Character.toLowerCase(codePoint);
+        int count = 0;
+        for(int i = 0; i < order.Size(); i++){
+            int cp = order.Get(i);
+            if(Character.toLowerCase(cp) == folded){ count += Count(cp); }
+        }
+        return count;
+    }
+
+    /** Gets the number of distinct characters */
+    public int Size(){ return order.Size(); }
+
+    /** Gets the characters used, each as a String
+     * @param  caseSensitive Should this be case sensitive? If false, the characters will be in lower case
+     * @return               The characters in the order they first appear
+     */
+    public List<String> CharactersUsed(boolean caseSensitive){
+        IntList chars = caseSensitive ? order : Folded(null);
+        List<String> ret = new ArrayList<String>(chars.Size());
+        for(int i = 0; i < chars.Size(); i++){ ret.add(new String(Character.toChars(chars.Get(i)))); }
+        return ret;
+    }
+
+    /** Gets the most common character
+     * @param  caseSensitive Should characters differing only by case be counted together? If not, the character will be in lower case
+     * @return               The most common character, the first to appear when there is a tie. Null if there are no characters
+     */
+    public String MostCommon(boolean caseSensitive){
+        IntList counts = new IntList();
+        IntList chars = caseSensitive ? order : Folded(counts);
+        int best = -1;
+        int max = 0;
+        for(int i = 0; i < chars.Size(); i++){
+            int count = caseSensitive ? Count(chars.Get(i)) : counts.Get(i);
+            if(max < count){
+                max = count;
+                best = chars.Get(i);
+            }
+        }
+        return best < 0 ? null : new String(Character.toChars(best));
+    }
+
+    /** Folds every character to lower case, in the order the folded characters first appear
+     * @param counts If not null, the count of each folded character is added to it
+     */
+    private IntList Folded(IntList counts){
+        IntList folded = new IntList();
+        HashMap<Integer, Integer> position = new HashMap<>();
+        for(int i = 0; i < order.Size(); i++){
+            int cp = order.Get(i);
+            int lower = Character.toLowerCase(cp);
+            Integer at = position.get(lower);
+            if(at == null){
+                position.put(lower, folded.Size());
+                folded.Add(lower);
+                if(counts != null){ counts.Add(Count(cp)); }
+            }
+            else if(counts != null){ counts.Set(at, counts.Get(at) + Count(cp)); }
+        }
+        return folded;
+    }
+
+    private void Add(int codePoint, int count){
+        if(count <= 0){ return; }
+        if(codePoint <= Character.MAX_VALUE){
+            if(bmp[codePoint] == 0){ order.Add(codePoint); }
+            bmp[codePoint] += count;
+            return;
+        }
+        if(supplementary.merge(codePoint, count, Integer::sum) == count){ order.Add(codePoint); }
+    }
+}
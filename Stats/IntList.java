@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+/** A growable list of primitive ints
+ *  <p>Used in place of ArrayList&lt;Integer&gt; when building index arrays, so
+ *  offsets are never boxed. Capacity grows by half again each time it is
+ *  exceeded, giving amortised constant time appends.</p>
+ */
+class IntList{
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] values;
+    private int size = 0;
+
+    /** Creates an empty list with a default initial capacity */
+    IntList(){ this(DEFAULT_CAPACITY); }
+
+    /** Creates an empty list
+     * @param capacity The number of values that can be added before the list has to grow
+     */
+    IntList(int capacity){
+        if(capacity < 0){ throw new Error("Capacity cannot be negative"); }
+        values = new int[capacity];
+    }
+
+    /** Creates a list holding every value of an array, taking the array over without a copy */
+    IntList(int[] values){ this(values, values.length); }
+
+    private IntList(int[] values, int size){
+        this.values = values;
+        this.size = size;
+    }
+
+    /** Adds a value to the end of the list */
+    public void Add(int value){
+        if(size == values.length){ Grow(size + 1); }
+        values[size++] = value;
+    }
+
+    /** Gets the value at the given position in the list */
+    public int Get(int index){
+        if(index < 0 || index >= size){ throw new Error("Index " + index + " is outside of list of size " + size); }
+        return values[index];
+    }
+
+    /** Adds every value of an array to the end of the list */
+    public void AddAll(int[] more){
+        if(size + more.length > values.length){ Grow(size + more.length); }
+        System.arraycopy(more, 0, values, size, more.length);
+        size += more.length;
+    }
+
+    /** Adds every value of another list to the end of this one, each shifted by the same amount
+     * @param more  The list to add the values of
+     * @param shift The amount added to each value
+     */
+    public void AddAll(IntList more, int shift){
+        if(size + more.size > values.length){ Grow(size + more.size); }
+        for(int i = 0; i < more.size; i++){ values[size++] = more.values[i] + shift; }
+    }
+
+    /** Sorts the values into ascending order */
+    public void Sort(){ Arrays.sort(values, 0, size); }
+
+    /** Sets the value at the given position in the list */
+    public void Set(int index, int value){
+        if(index < 0 || index >= size){ throw new Error("Index " + index + " is outside of list of size " + size); }
+        values[index] = value;
+    }
+
+    /** Gets the last value in the list */
+    public int Last(){ return Get(size - 1); }
+
+    /** Removes the last value in the list */
+    public void RemoveLast(){
+        if(size == 0){ throw new Error("Cannot remove from an empty list"); }
+        size--;
+    }
+
+    /** Removes values from the end of the list until it holds the given number */
+    public void Truncate(int newSize){
+        if(newSize < 0 || newSize > size){ throw new Error("Cannot truncate a list of size " + size + " to " + newSize); }
+        size = newSize;
+    }
+
+    /** Searches the ascending values for one
+     * @return The position of the value, as Arrays.binarySearch
+     */
+    public int BinarySearch(int value){ return Arrays.binarySearch(values, 0, size, value); }
+
+    /** Gets how many values the list can hold before it has to grow, the length of its backing array */
+    int Capacity(){ return values.length; }
+
+    /** Gets the number of values in the list */
+    public int Size(){ return size; }
+
+    /** Gets the values as an array trimmed to the size of the list.
+     *  <p>If the list is already full its backing array is handed over without a copy,
+     *  so the list should not be added to afterwards.</p>
+     */
+    public int[] ToArray(){
+        if(size == values.length){ return values; }
+        return Arrays.copyOf(values, size);
+    }
+
+    /** Gets a list of the values held now, sharing this list's backing array rather than copying it.
+     *  <p>Adding to this list afterwards only writes past the end of the shared values, so the other list is
+     *  unchanged. Setting, removing or truncating then adding does change it, so copy the list first</p>
+     */
+    IntList Share(){ return new IntList(values, size); }
+
+    /** Copies the list, keeping its spare capacity */
+    IntList Copy(){ return new IntList(Arrays.copyOf(values, values.length), size); }
+
+    /** Grows the backing array to hold at least the given number of values */
+    private void Grow(int minCapacity){
+        int capacity = Math.max(minCapacity, values.length + (values.length >> 1) + 1);
+        if(capacity < 0){ throw new Error("List is too large"); }
+        values = Arrays.copyOf(values, capacity);
+    }
+}
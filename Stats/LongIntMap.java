@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/** A hash map from primitive long keys to primitive int values
+ *  <p>Open addressing with linear probing, so neither keys nor values are boxed.
+ *  The table doubles in size whenever it becomes more than half full.</p>
+ */
+class LongIntMap{
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size = 0;
+
+    /** Creates an empty map
+     * @param expectedSize The number of keys the map should hold before it has to grow
+     */
+    LongIntMap(int expectedSize){
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    /** Gets the value for a key
+     * @param  key     The key to look up
+     * @param  missing The value to return if the key is not in the map
+     */
+    public int Get(long key, int missing){
+        int slot = Find(key);
+        return used[slot] ? values[slot] : missing;
+    }
+
+    /** Whether the key is in the map */
+    public boolean Contains(long key){ return used[Find(key)]; }
+
+    /** Sets the value for a key */
+    public void Put(long key, int value){
+        int slot = Find(key);
+        if(!used[slot]){ slot = Insert(slot, key); }
+        values[slot] = value;
+    }
+
+    /** Adds to the value for a key, a missing key starts at 0
+     * @return The new value for the key
+     */
+    public int Add(long key, int amount){
+        int slot = Find(key);
+        if(!used[slot]){ slot = Insert(slot, key); }
+        values[slot] += amount;
+        return values[slot];
+    }
+
+    /** Gets the number of keys in the map */
+    public int Size(){ return size; }
+
+    /** Gets the number of slots in the table, for iterating with IsUsed, KeyAt and ValueAt */
+    int Capacity(){ return keys.length; }
+
+    /** Whether a slot of the table holds a key */
+    boolean IsUsed(int slot){ return used[slot]; }
+
+    /** Gets the key held in a slot of the table */
+    long KeyAt(int slot){ return keys[slot]; }
+
+    /** Gets the value held in a slot of the table */
+    int ValueAt(int slot){ return values[slot]; }
+
+    /** Removes every key */
+    public void Clear(){
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /** Finds the slot holding the key, or the empty slot where it would be inserted */
+    private int Find(long key){
+        int mask = keys.length - 1;
+        int slot = Hash(key) & mask;
+        while(used[slot] && keys[slot] != key){ slot = (slot + 1) & mask; }
+        return slot;
+    }
+
+    /** Puts a new key in an empty slot, growing the table if needed
+     * @return The slot now holding the key
+     */
+    private int Insert(int slot, long key){
+        if((size + 1) * 2 > keys.length){
+            Grow();
+            slot = Find(key);
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = 0;
+        size++;
+        return slot;
+    }
+
+    private void Grow(){
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for(int i = 0; i < oldKeys.length; i++){
+            if(!oldUsed[i]){ continue; }
+            int slot = Find(oldKeys[i]);
+            used[slot] = true;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /** Spreads the bits of a key, the finaliser of MurmurHash3 */
+    private static int Hash(long key){
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
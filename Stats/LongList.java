@@ -0,0 +1,59 @@
+import java.util.Arrays;
+
+/** A growable list of primitive longs
+ *  <p>The long counterpart of IntList, used for byte offsets into files too large
+ *  for an int. Capacity grows by half again each time it is exceeded, giving
+ *  amortised constant time appends.</p>
+ */
+class LongList{
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] values;
+    private int size = 0;
+
+    /** Creates an empty list with a default initial capacity */
+    LongList(){ this(DEFAULT_CAPACITY); }
+
+    /** Creates an empty list
+     * @param capacity The number of values that can be added before the list has to grow
+     */
+    LongList(int capacity){
+        if(capacity < 0){ throw new Error("Capacity cannot be negative"); }
+        values = new long[capacity];
+    }
+
+    /** Adds a value to the end of the list */
+    public void Add(long value){
+        if(size == values.length){ Grow(size + 1); }
+        values[size++] = value;
+    }
+
+    /** Gets the value at the given position in the list */
+    public long Get(int index){
+        if(index < 0 || index >= size){ throw new Error("Index " + index + " is outside of list of size " + size); }
+        return values[index];
+    }
+
+    /** Gets the last value in the list */
+    public long Last(){ return Get(size - 1); }
+
+    /** Gets the number of values in the list */
+    public int Size(){ return size; }
+
+    /** Gets the values as an array trimmed to the size of the list.
+     *  <p>If the list is already full its backing array is handed over without a copy,
+     *  so the list should not be added to afterwards.</p>
+     */
+    public long[] ToArray(){
+        if(size == values.length){ return values; }
+        return Arrays.copyOf(values, size);
+    }
+
+    /** Grows the backing array to hold at least the given number of values */
+    private void Grow(int minCapacity){
+        int capacity = Math.max(minCapacity, values.length + (values.length >> 1) + 1);
+        if(capacity < 0){ throw new Error("List is too large"); }
+        values = Arrays.copyOf(values, capacity);
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/** The matches of a regex over a string, held as parallel arrays of start and end offsets
+ *  <p>No String is made for a match until it is asked for, so counting or iterating
+ *  over a large number of matches costs two ints each. See Stats.MatchesFromRegex</p>
+ */
+class MatchList{
+
+    /** Folding for case sensitive comparison, none */
+    private static final int EXACT = 0;
+    /** Folding of US-ASCII letters only, as regex case insensitive matching and Stats.TokenCount fold */
+    private static final int ASCII = 1;
+    /** Folding of every letter with Character.toLowerCase, as Stats.UniqueStrings folds */
+    private static final int LOWER = 2;
+
+    private final String source;
+    private final int[] starts;
+    private final int[] ends;
+
+    /** Creates a list of matches
+     * @param source The string that was matched against
+     * @param starts The index in source of the start of each match, in order
+     * @param ends   The index in source of the end of each match
+     */
+    MatchList(String source, int[] starts, int[] ends){
+        if(starts.length != ends.length){ throw new Error("Every match needs a start and an end"); }
+        this.source = source;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /** Gets the number of matches */
+    public int Size(){ return starts.length; }
+
+    /** Gets the index in the source string of the start of a match */
+    public int Start(int match){ return starts[match]; }
+
+    /** Gets the index in the source string of the end of a match */
+    public int End(int match){ return ends[match]; }
+
+    /** Gets the length of a match */
+    public int Length(int match){ return ends[match] - starts[match]; }
+
+    /** Gets the total length of every match */
+    public long CharCount(){
+        long chars = 0;
+        for(int i = 0; i < Size(); i++){ chars += ends[i] - starts[i]; }
+        return chars;
+    }
+
+    /** Gets the string that was matched */
+    public String Get(int match){ return source.substring(starts[match], ends[match]); }
+
+    /** Gets a view of the string that was matched, without copying it */
+    public CharSequence View(int match){ return new TextView(source, starts[match], ends[match]); }
+
+    /** Gets every matched string, in order */
+    public List<String> Strings(){
+        List<String> ret = new ArrayList<>(Size());
+        for(int i = 0; i < Size(); i++){ ret.add(Get(i)); }
+        return ret;
+    }
+
+    /** Gets the matches as a TreeMap, the form returned by Stats.MapFromRegex
+     * @return <Strong>Key</Strong> is the starting index of the match
+     *         <li> <strong>Value</Strong> is the String that matched </li>
+     */
+    public TreeMap<Integer, String> ToMap(){
+        TreeMap<Integer, String> ret = new TreeMap<Integer, String>();
+        for(int i = 0; i < Size(); i++){ ret.put(starts[i], Get(i)); }
+        return ret;
+    }
+
+    /** Gets the first match of each distinct string, comparing the matched text in place.
+     *  Case insensitive comparison folds every letter with Character.toLowerCase, as UniqueStrings does
+     * @param  caseSensitive Should matches differing only by case be treated as different?
+     * @return               The number of the first match of each distinct string, in order
+     */
+    public int[] FirstOfEach(boolean caseSensitive){
+        IntList firsts = new IntList();
+        Distinct(caseSensitive ? EXACT : LOWER, firsts, new IntList());
+        return firsts.ToArray();
+    }
+
+    /** Gets the most frequently matched strings, counted in one pass over the matches.
+     *  Case insensitive counts fold US-ASCII letters only, so they agree with Stats.TokenCount and regex case insensitive matching
+     * @param  k             The most strings to return
+     * @param  caseSensitive Should matches differing only by case be counted separately? If not, the strings will have their US-ASCII letters in lower case
+     * @return <Strong>Key</Strong> is the matched string, most frequent first, ties in the order they were first matched
+     *         <li> <strong>Value</Strong> is the number of matches of that string </li>
+     */
+    public LinkedHashMap<String, Integer> TopK(int k, boolean caseSensitive){
+        if(k < 0){ throw new Error("Cannot get a negative number of strings"); }
+        IntList firsts = new IntList();
+        IntList counts = new IntList();
+        Distinct(caseSensitive ? EXACT : ASCII, firsts, counts);
+        // the least frequent of the best k so far is at the head, with the latest first match ahead of it on a tie
+        PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, k), (a, b) ->
+            counts.Get(a) != counts.Get(b) ? Integer.compare(counts.Get(a), counts.Get(b)) : Integer.compare(b, a));
+        for(int i = 0; i < firsts.Size() && k > 0; i++){
+            if(best.size() < k){ best.add(i); }
+            else if(counts.Get(i) > counts.Get(best.peek())){
+                best.poll();
+                best.add(i);
+            }
+        }
+        Integer[] order = best.toArray(new Integer[0]);
+        Arrays.sort(order, best.comparator().reversed());
+        LinkedHashMap<String, Integer> ret = new LinkedHashMap<String, Integer>();
+        for(int i : order){
+            String s = Get(firsts.Get(i));
+            ret.put(caseSensitive ? s : TokenIndex.Fold(s), counts.Get(i));
+        }
+        return ret;
+    }
+
+    /** Finds each distinct matched string with an open addressing table of match numbers
+     * @param folding How letters are folded before comparing, EXACT, ASCII or LOWER
+     * @param firsts The number of the first match of each distinct string is added to this, in order
+     * @param counts The number of matches of each distinct string is added to this
+     */
+    private void Distinct(int folding, IntList firsts, IntList counts){
+        int[] table = new int[Integer.highestOneBit(Math.max(2, Size()) * 2 - 1) << 1];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for(int i = 0; i < Size(); i++){
+            int slot = Hash(i, folding) & mask;
+            while(table[slot] >= 0 && !Same(firsts.Get(table[slot]), i, folding)){ slot = (slot + 1) & mask; }
+            if(table[slot] >= 0){
+                counts.Set(table[slot], counts.Get(table[slot]) + 1);
+                continue;
+            }
+            table[slot] = firsts.Size();
+            firsts.Add(i);
+            counts.Add(1);
+        }
+    }
+
+    private int Hash(int match, int folding){
+        int h = 0;
+        for(int i = starts[match]; i < ends[match]; i++){ h = 31 * h + Fold(source.charAt(i), folding); }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean Same(int a, int b, int folding){
+        int length = Length(a);
+        if(length != Length(b)){ return false; }
+        for(int i = 0; i < length; i++){
+            char x = source.charAt(starts[a] + i);
+            char y = source.charAt(starts[b] + i);
+            if(x != y && (folding == EXACT || Fold(x, folding) != Fold(y, folding))){ return false; }
+        }
+        return true;
+    }
+
+    private static char Fold(char c, int folding){
+        if(folding == ASCII){ return Stats.Fold(c); }
+        return folding == LOWER ? Character.toLowerCase(c) : c;
+    }
+}
@@ -0,0 +1,236 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** Optional timing and allocation measurements of Stats operations, without attaching a profiler
+ *  <p>Off by default, see SetEnabled. While off, measuring an operation costs one read of a flag and
+ *  nothing is recorded. While on, each operation records how many calls completed, a histogram of
+ *  their latencies, the bytes of text they processed and, where the JVM's ThreadMXBean can measure it,
+ *  the bytes allocated by the calling thread. Calls that fail part way are not recorded.</p>
+ *  <p>Bytes processed are the bytes of the file for loaders, and two bytes for each char of text
+ *  searched in memory. Nested operations each record their whole call, so StringsCount includes the
+ *  CountOcurranceString calls it makes.</p>
+ *  <p>Once enabled the measurements are published over JMX as OBJECT_NAME, see MetricsMXBean,
+ *  and Output --metrics prints them as a table, see Summary.</p>
+ */
+final class Metrics implements MetricsMXBean{
+
+    /** The name the measurements are published under over JMX */
+    static final String OBJECT_NAME = "Stats:type=Metrics";
+    /** Number of latency buckets, bucket b counting calls that took under 2^b nanoseconds and at least half that */
+    private static final int BUCKETS = 64;
+
+    private static volatile boolean enabled = false;
+    private static boolean registered = false;
+    /** Every operation, in the order they were first asked for */
+    private static final List<Operation> operations = new CopyOnWriteArrayList<>();
+
+    private Metrics(){}
+
+    /** Turns measuring on or off for every operation, on every thread.
+     *  The first time it is turned on the measurements are published over JMX, if the platform MBean server allows it */
+    static synchronized void SetEnabled(boolean on){
+        if(on && !registered){
+            registered = true;
+            try{ ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName(OBJECT_NAME)); }
+            catch(JMException | SecurityException e){ System.err.println("Metrics not published over JMX: " + e); }
+        }
+        enabled = on;
+    }
+
+    /** Whether operations are being measured */
+    static boolean IsEnabled(){ return enabled; }
+
+    /** Gets the operation with the given name, adding it the first time it is asked for.
+     *  Intended to be held in a static final field by the class whose operation it measures */
+    static synchronized Operation For(String name){
+        for(Operation o : operations){ if(o.name.equals(name)){ return o; } }
+        Operation o = new Operation(name);
+        operations.add(o);
+        return o;
+    }
+
+    /** Forgets every measurement made so far, measuring carries on if it is on */
+    static void Reset(){ for(Operation o : operations){ o.Reset(); } }
+
+    /** Gets the measurements of every operation that has completed at least once, as a table with one row per operation */
+    static String Summary(){
+        StringBuilder ret = new StringBuilder(String.format("%-22s %9s %11s %10s %10s %10s %14s %14s%n",
+            "Operation", "Calls", "Total ms", "Mean us", "p50 us", "p99 us", "Bytes", "Allocated"));
+        for(Operation o : operations){
+            long calls = o.Calls();
+            if(calls == 0){ continue; }
+            ret.append(String.format("%-22s %9d %11.1f %10.1f %10.1f %10.1f %14d %14s%n", o.name, calls,
+                o.TotalNanos() / 1e6, o.TotalNanos() / 1e3 / calls, o.Percentile(0.5) / 1e3, o.Percentile(0.99) / 1e3,
+                o.BytesProcessed(), Allocation.Supported() ? Long.toString(o.AllocatedBytes()) : "n/a"));
+        }
+        return ret.toString();
+    }
+
+    /** The calls of one operation, such as Stats.CountOcurranceString, measured so far */
+    static final class Operation{
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+        private Operation(String name){ this.name = name; }
+
+        /** Starts measuring a call of the operation, which is recorded when the returned timer is stopped.
+         *  Does nothing if measuring is off */
+        Timer Start(){
+            if(!enabled){ return Timer.NONE; }
+            return new Timer(this, System.nanoTime(), Allocation.Bytes());
+        }
+
+        /** Records a call timed by the caller, for an operation done a piece at a time between other work.
+         *  The allocation of the call is not measured. Does nothing if measuring is off
+         * @param took           The nanoseconds the call took
+         * @param bytesProcessed The bytes of text the call processed
+         */
+        void Record(long took, long bytesProcessed){
+            if(enabled){ Record(took, bytesProcessed, 0); }
+        }
+
+        /** Gets the name of the operation */
+        String Name(){ return name; }
+
+        /** Gets how many calls have completed */
+        long Calls(){ return calls.sum(); }
+
+        /** Gets the total time spent in the operation, in nanoseconds */
+        long TotalNanos(){ return nanos.sum(); }
+
+        /** Gets the bytes of text processed by every call */
+        long BytesProcessed(){ return bytes.sum(); }
+
+        /** Gets the bytes allocated by every call, 0 if the JVM cannot measure allocation */
+        long AllocatedBytes(){ return allocated.sum(); }
+
+        /** Gets the latency that a fraction of calls took no longer than, to within a factor of two
+         * @param  fraction The fraction of calls, 0.5 for the median
+         * @return          The upper bound in nanoseconds of the latency bucket holding that call, 0 if there are no calls
+         */
+        long Percentile(double fraction){
+            long total = 0;
+            for(int b = 0; b < BUCKETS; b++){ total += latencies.get(b); }
+            if(total == 0){ return 0; }
+            long wanted = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for(int b = 0; b < BUCKETS; b++){
+                seen += latencies.get(b);
+                if(seen >= wanted){ return b == BUCKETS - 1 ? Long.MAX_VALUE : 1L << b; }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private void Record(long took, long processed, long allocatedBytes){
+            calls.increment();
+            nanos.add(took);
+            bytes.add(processed);
+            allocated.add(allocatedBytes);
+            latencies.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(took)));
+        }
+
+        private void Reset(){
+            calls.reset();
+            nanos.reset();
+            bytes.reset();
+            allocated.reset();
+            for(int b = 0; b < BUCKETS; b++){ latencies.set(b, 0); }
+        }
+    }
+
+    /** One call of an operation being measured, which must be stopped on the thread that started it */
+    static final class Timer{
+        /** Returned while measuring is off, stopping it records nothing */
+        private static final Timer NONE = new Timer(null, 0, 0);
+
+        private final Operation operation;
+        private final long start;
+        private final long allocatedAtStart;
+
+        private Timer(Operation operation, long start, long allocatedAtStart){
+            this.operation = operation;
+            this.start = start;
+            this.allocatedAtStart = allocatedAtStart;
+        }
+
+        /** Records the call as complete
+         * @param bytesProcessed The bytes of text the call processed
+         */
+        void Stop(long bytesProcessed){
+            if(operation == null){ return; }
+            operation.Record(System.nanoTime() - start, bytesProcessed, Allocation.Bytes() - allocatedAtStart);
+        }
+    }
+
+    /** Reads how many bytes the current thread has allocated, loaded only once measuring is first turned on */
+    private static final class Allocation{
+        private static final com.sun.management.ThreadMXBean threads = Threads();
+
+        /** Whether the JVM can measure allocation */
+        static boolean Supported(){ return threads != null; }
+
+        /** Gets the bytes the current thread has allocated so far, 0 if the JVM cannot measure allocation */
+        static long Bytes(){ return threads == null ? 0 : threads.getCurrentThreadAllocatedBytes(); }
+
+        private static com.sun.management.ThreadMXBean Threads(){
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if(!(bean instanceof com.sun.management.ThreadMXBean)){ return null; }
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            try{
+                if(!threads.isThreadAllocatedMemorySupported()){ return null; }
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+            catch(UnsupportedOperationException | SecurityException e){ return null; }
+        }
+    }
+
+    @Override
+    public boolean isEnabled(){ return IsEnabled(); }
+
+    @Override
+    public void setEnabled(boolean on){ SetEnabled(on); }
+
+    @Override
+    public Map<String, Long> getCalls(){ return ByOperation(Operation::Calls); }
+
+    @Override
+    public Map<String, Long> getTotalNanos(){ return ByOperation(Operation::TotalNanos); }
+
+    @Override
+    public Map<String, Long> getMedianNanos(){ return ByOperation(o -> o.Percentile(0.5)); }
+
+    @Override
+    public Map<String, Long> getP99Nanos(){ return ByOperation(o -> o.Percentile(0.99)); }
+
+    @Override
+    public Map<String, Long> getBytesProcessed(){ return ByOperation(Operation::BytesProcessed); }
+
+    @Override
+    public Map<String, Long> getAllocatedBytes(){ return ByOperation(Operation::AllocatedBytes); }
+
+    @Override
+    public String getSummary(){ return Summary(); }
+
+    @Override
+    public void reset(){ Reset(); }
+
+    private static Map<String, Long> ByOperation(ToLongFunction<Operation> value){
+        Map<String, Long> ret = new LinkedHashMap<>();
+        for(Operation o : operations){ if(o.Calls() > 0){ ret.put(o.name, value.applyAsLong(o)); } }
+        return ret;
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.Map;
+
+/** The measurements of Stats operations as published over JMX, under the name Metrics.OBJECT_NAME.
+ *  Maps are keyed by operation name, and hold only operations that have completed at least once.
+ *  See Metrics */
+public interface MetricsMXBean{
+
+    /** Whether operations are being measured */
+    boolean isEnabled();
+
+    /** Turns measuring on or off, see Metrics.SetEnabled */
+    void setEnabled(boolean enabled);
+
+    /** Gets how many calls of each operation have completed */
+    Map<String, Long> getCalls();
+
+    /** Gets the total time spent in each operation, in nanoseconds */
+    Map<String, Long> getTotalNanos();
+
+    /** Gets the median latency of each operation, in nanoseconds, to within a factor of two */
+    Map<String, Long> getMedianNanos();
+
+    /** Gets the 99th percentile latency of each operation, in nanoseconds, to within a factor of two */
+    Map<String, Long> getP99Nanos();
+
+    /** Gets the bytes of text processed by each operation */
+    Map<String, Long> getBytesProcessed();
+
+    /** Gets the bytes allocated by each operation, all 0 if the JVM cannot measure allocation */
+    Map<String, Long> getAllocatedBytes();
+
+    /** Gets the measurements as a table, as printed by Output --metrics */
+    String getSummary();
+
+    /** Forgets every measurement made so far */
+    void reset();
+}
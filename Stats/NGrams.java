@@ -0,0 +1,295 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
+
+/** Counts of the word and character n-grams of a document, built in a single pass over its words
+ *  <p>Each distinct token is given an int ID in the order it first appears, so a word n-gram of up
+ *  to three tokens packs into one long and is counted in a primitive LongIntMap without making a
+ *  String. Tokens are runs of word characters within the document's words, as used by Stats.TopK,
+ *  and a word n-gram is any run of consecutive tokens. Character n-grams of one to four chars are
+ *  taken from within each word and packed the same way.</p>
+ *  <p>Memory is bounded. Once a table holds more than its maximum number of n-grams, the least
+ *  frequent half of them are dropped, after which its counts are lower bounds that may be low by
+ *  up to MaxUndercount. Only the first 2^21 distinct tokens are given IDs, n-grams including any
+ *  later new token are not counted.</p>
+ *  <p>Case insensitive counts fold US-ASCII letters only, as TopK and TokenCount do.</p>
+ */
+class NGrams{
+
+    /** The most tokens in a word n-gram */
+    static final int MAX_WORDS = 3;
+    /** The most chars in a character n-gram */
+    static final int MAX_CHARS = 4;
+    /** Bits given to each token ID in a packed word n-gram */
+    private static final int ID_BITS = 21;
+    private static final int MAX_TOKENS = 1 << ID_BITS;
+
+    private final String document;
+    private final boolean caseSensitive;
+    private final int maxEntries;
+    // where each token first appears, by ID, and an open addressing table of IDs hashed by their text
+    private final IntList tokenStarts = new IntList();
+    private final IntList tokenEnds = new IntList();
+    private int[] ids = new int[1 << 10];
+    // tables and undercounts are indexed by the length of their n-grams
+    private final LongIntMap[] words = new LongIntMap[MAX_WORDS + 1];
+    private final LongIntMap[] chars = new LongIntMap[MAX_CHARS + 1];
+    private final int[] wordUndercount = new int[MAX_WORDS + 1];
+    private final int[] charUndercount = new int[MAX_CHARS + 1];
+    // the IDs of the two tokens before the current one, -1 where there is none
+    private int previous = -1;
+    private int beforePrevious = -1;
+
+    /** Counts the n-grams of every word of a document
+     * @param document      The document text
+     * @param wordIndex     The index in the document of the start of each word
+     * @param caseSensitive Should n-grams differing only by case be counted separately?
+     * @param maxEntries    The most n-grams each table holds before dropping the least frequent
+     */
+    NGrams(String document, IntList wordIndex, boolean caseSensitive, int maxEntries){
+        if(maxEntries < 1){ throw new Error("N-gram tables must hold at least 1 entry"); }
+        this.document = document;
+        this.caseSensitive = caseSensitive;
+        this.maxEntries = maxEntries;
+        Arrays.fill(ids, -1);
+        for(int n = 1; n <= MAX_WORDS; n++){ words[n] = new LongIntMap(16); }
+        for(int n = 1; n <= MAX_CHARS; n++){ chars[n] = new LongIntMap(16); }
+        for(int w = 0; w < wordIndex.Size(); w++){
+            int i = wordIndex.Get(w);
+            int tokenStart = -1;
+            while(i < document.length() && !Stats.IsWhitespace(document.charAt(i))){
+                int cp = document.codePointAt(i);
+                if(Stats.IsWordChar(cp)){
+                    if(tokenStart < 0){ tokenStart = i; }
+                }
+                else if(tokenStart >= 0){
+                    AddToken(tokenStart, i);
+                    tokenStart = -1;
+                }
+                i += Character.charCount(cp);
+            }
+            if(tokenStart >= 0){ AddToken(tokenStart, i); }
+            AddChars(wordIndex.Get(w), i);
+        }
+    }
+
+    /** Gets the ID of a token, -1 if it is not in the document */
+    public int TokenId(String token){
+        int mask = ids.length - 1;
+        for(int slot = Hash(token, 0, token.length()) & mask; ids[slot] >= 0; slot = (slot + 1) & mask){
+            if(Same(ids[slot], token, 0, token.length())){ return ids[slot]; }
+        }
+        return -1;
+    }
+
+    /** Gets the token with the given ID, in lower case if the counts are case insensitive */
+    public String Token(int id){
+        String s = document.substring(tokenStarts.Get(id), tokenEnds.Get(id));
+        return caseSensitive ? s : TokenIndex.Fold(s);
+    }
+
+    /** Gets the number of distinct tokens */
+    public int DistinctTokens(){ return tokenStarts.Size(); }
+
+    /** Gets the number of distinct word n-grams of a length being counted
+     * @param length The number of tokens in each n-gram, 1 to 3
+     */
+    public int Distinct(int length){ return words[length].Size(); }
+
+    /** Gets the number of times a run of tokens appears
+     * @param  tokens One to three tokens, in order
+     * @return        The count, 0 if it is not in the document
+     */
+    public int Count(String... tokens){
+        if(tokens.length < 1 || tokens.length > MAX_WORDS){ throw new Error("Word n-grams are 1 to " + MAX_WORDS + " tokens long"); }
+        long key = 0;
+        for(String token : tokens){
+            int id = TokenId(token);
+            if(id < 0){ return 0; }
+            key = key << ID_BITS | id;
+        }
+        return words[tokens.length].Get(key, 0);
+    }
+
+    /** Gets the number of times a run of characters appears within a word
+     * @param  gram One to four characters
+     * @return      The count, 0 if it is not in the document
+     */
+    public int CharCount(String gram){
+        if(gram.length() < 1 || gram.length() > MAX_CHARS){ throw new Error("Character n-grams are 1 to " + MAX_CHARS + " chars long"); }
+        long key = 0;
+        for(int i = 0; i < gram.length(); i++){ key = key << Character.SIZE | Fold(gram.charAt(i)); }
+        return chars[gram.length()].Get(key, 0);
+    }
+
+    /** Finds the most frequent word n-grams of a length
+     * @param  k      The most n-grams to return
+     * @param  length The number of tokens in each n-gram, 1 to 3
+     * @return <Strong>Key</Strong> is the n-gram, its tokens separated by a space, most frequent first, ties in the order their tokens first appear
+     *         <li> <strong>Value</Strong> is the count of that n-gram </li>
+     */
+    public LinkedHashMap<String, Integer> Top(int k, int length){
+        if(length < 1 || length > MAX_WORDS){ throw new Error("Word n-grams are 1 to " + MAX_WORDS + " tokens long"); }
+        LinkedHashMap<String, Integer> ret = new LinkedHashMap<String, Integer>();
+        LongIntMap table = words[length];
+        for(int slot : Best(table, k)){
+            StringBuilder gram = new StringBuilder();
+            for(int j = length - 1; j >= 0; j--){
+                if(gram.length() > 0){ gram.append(' '); }
+                gram.append(Token((int) (table.KeyAt(slot) >>> (ID_BITS * j)) & (MAX_TOKENS - 1)));
+            }
+            ret.put(gram.toString(), table.ValueAt(slot));
+        }
+        return ret;
+    }
+
+    /** Finds the most frequent character n-grams of a length
+     * @param  k      The most n-grams to return
+     * @param  length The number of chars in each n-gram, 1 to 4
+     * @return <Strong>Key</Strong> is the n-gram, most frequent first, ties in char order
+     *         <li> <strong>Value</Strong> is the count of that n-gram </li>
+     */
+    public LinkedHashMap<String, Integer> TopChars(int k, int length){
+        if(length < 1 || length > MAX_CHARS){ throw new Error("Character n-grams are 1 to " + MAX_CHARS + " chars long"); }
+        LinkedHashMap<String, Integer> ret = new LinkedHashMap<String, Integer>();
+        LongIntMap table = chars[length];
+        for(int slot : Best(table, k)){
+            char[] gram = new char[length];
+            for(int j = 0; j < length; j++){ gram[j] = (char) (table.KeyAt(slot) >>> (Character.SIZE * (length - 1 - j))); }
+            ret.put(new String(gram), table.ValueAt(slot));
+        }
+        return ret;
+    }
+
+    /** Gets the most that any count of word n-grams of a length may be too low by, 0 while they are exact
+     * @param length The number of tokens in each n-gram, 1 to 3
+     */
+    public int MaxUndercount(int length){ return wordUndercount[length]; }
+
+    /** Gets the most that any count of character n-grams of a length may be too low by, 0 while they are exact
+     * @param length The number of chars in each n-gram, 1 to 4
+     */
+    public int MaxCharUndercount(int length){ return charUndercount[length]; }
+
+    /** Counts a token and the word n-grams that it ends */
+    private void AddToken(int start, int end){
+        int id = Intern(start, end);
+        if(id < 0){
+            previous = -1;
+            beforePrevious = -1;
+            return;
+        }
+        Count(words, wordUndercount, 1, id);
+        if(previous >= 0){
+            Count(words, wordUndercount, 2, (long) previous << ID_BITS | id);
+            if(beforePrevious >= 0){ Count(words, wordUndercount, 3, ((long) beforePrevious << ID_BITS | previous) << ID_BITS | id); }
+        }
+        beforePrevious = previous;
+        previous = id;
+    }
+
+    /** Counts the character n-grams within a word */
+    private void AddChars(int start, int end){
+        for(int i = start; i < end; i++){
+            long key = 0;
+            for(int n = 1; n <= MAX_CHARS && i + n <= end; n++){
+                key = key << Character.SIZE | Fold(document.charAt(i + n - 1));
+                Count(chars, charUndercount, n, key);
+            }
+        }
+    }
+
+    private void Count(LongIntMap[] tables, int[] undercount, int length, long key){
+        tables[length].Add(key, 1);
+        if(tables[length].Size() > maxEntries){ Prune(tables, undercount, length); }
+    }
+
+    /** Drops at least the least frequent half of a table's n-grams, keeping track of how much counts may now be too low */
+    private void Prune(LongIntMap[] tables, int[] undercount, int length){
+        LongIntMap table = tables[length];
+        int[] counts = new int[table.Size()];
+        int found = 0;
+        for(int slot = 0; slot < table.Capacity(); slot++){
+            if(table.IsUsed(slot)){ counts[found++] = table.ValueAt(slot); }
+        }
+        Arrays.sort(counts);
+        int threshold = counts[counts.length / 2];
+        LongIntMap kept = new LongIntMap(counts.length / 2);
+        for(int slot = 0; slot < table.Capacity(); slot++){
+            if(table.IsUsed(slot) && table.ValueAt(slot) > threshold){ kept.Put(table.KeyAt(slot), table.ValueAt(slot)); }
+        }
+        tables[length] = kept;
+        // an n-gram may have been dropped at every prune, each time losing no more than that prune's threshold
+        undercount[length] += threshold;
+    }
+
+    /** Picks the slots of the k most frequent n-grams in a table, most frequent first, ties lowest key first */
+    private static int[] Best(LongIntMap table, int k){
+        if(k < 0){ throw new Error("Cannot get a negative number of n-grams"); }
+        // the least frequent of the best k so far is at the head, with the highest key ahead of it on a tie
+        PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, k), (a, b) ->
+            table.ValueAt(a) != table.ValueAt(b) ? Integer.compare(table.ValueAt(a), table.ValueAt(b)) : Long.compare(table.KeyAt(b), table.KeyAt(a)));
+        for(int slot = 0; slot < table.Capacity() && k > 0; slot++){
+            if(!table.IsUsed(slot)){ continue; }
+            if(best.size() < k){ best.add(slot); }
+            else if(best.comparator().compare(slot, best.peek()) > 0){
+                best.poll();
+                best.add(slot);
+            }
+        }
+        Integer[] order = best.toArray(new Integer[0]);
+        Arrays.sort(order, best.comparator().reversed());
+        int[] ret = new int[order.length];
+        for(int i = 0; i < order.length; i++){ ret[i] = order[i]; }
+        return ret;
+    }
+
+    /** Gets the ID of the token between two indexes of the document, giving it a new one if it has not been seen before
+     * @return The ID, -1 if the token is new and there are no IDs left
+     */
+    private int Intern(int start, int end){
+        int mask = ids.length - 1;
+        int slot = Hash(document, start, end) & mask;
+        while(ids[slot] >= 0){
+            if(Same(ids[slot], document, start, end)){ return ids[slot]; }
+            slot = (slot + 1) & mask;
+        }
+        if(tokenStarts.Size() == MAX_TOKENS){ return -1; }
+        int id = tokenStarts.Size();
+        ids[slot] = id;
+        tokenStarts.Add(start);
+        tokenEnds.Add(end);
+        if(tokenStarts.Size() * 2 > ids.length){ Grow(); }
+        return id;
+    }
+
+    /** Doubles the table of IDs, placing each one again */
+    private void Grow(){
+        ids = new int[ids.length * 2];
+        Arrays.fill(ids, -1);
+        int mask = ids.length - 1;
+        for(int id = 0; id < tokenStarts.Size(); id++){
+            int slot = Hash(document, tokenStarts.Get(id), tokenEnds.Get(id)) & mask;
+            while(ids[slot] >= 0){ slot = (slot + 1) & mask; }
+            ids[slot] = id;
+        }
+    }
+
+    private int Hash(CharSequence text, int start, int end){
+        int h = 0;
+        for(int i = start; i < end; i++){ h = 31 * h + Fold(text.charAt(i)); }
+        return h ^ (h >>> 16);
+    }
+
+    /** Whether the token with an ID is the same as some text */
+    private boolean Same(int id, CharSequence text, int start, int end){
+        int first = tokenStarts.Get(id);
+        if(tokenEnds.Get(id) - first != end - start){ return false; }
+        for(int i = 0; i < end - start; i++){
+            if(Fold(document.charAt(first + i)) != Fold(text.charAt(start + i))){ return false; }
+        }
+        return true;
+    }
+
+    private char Fold(char c){ return caseSensitive ? c : Stats.Fold(c); }
+}
@@ -1,19 +1,59 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.nio.file.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+
 class Output{
+    /** How often, in milliseconds, --watch checks the file for new content unless given */
+    private static final long WATCH_MILLIS = 1000;
+    /** How much memory, in bytes, --sketch gives each file's sketch unless given */
+    private static final long SKETCH_BYTES = 1L << 23;
+    /** How many of the most common words --sketch prints */
+    private static final int SKETCH_TOP = 5;
+
     private Stats s = new Stats();
+    // memory for the sketch of each file's words, 0 when not sketching
+    private long sketchBytes = 0;
 
     public static void main(String... args){
         if(args.length < 1){ throw new Error("1 Argument missing: expected file path of text document");}
         Output o = new Output();
-        o.run(args[0]);
+        List<String> paths = new ArrayList<>();
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        long watchMillis = 0;
+        boolean metrics = false;
+        for(String arg : args){
+            if(arg.startsWith("--concurrency=")){ concurrency = Integer.parseInt(arg.substring("--concurrency=".length())); }
+            else if(arg.equals("--watch")){ watchMillis = WATCH_MILLIS; }
+            else if(arg.startsWith("--watch=")){ watchMillis = Long.parseLong(arg.substring("--watch=".length())); }
+            else if(arg.equals("--metrics")){ metrics = true; }
+            else if(arg.equals("--sketch")){ o.sketchBytes = SKETCH_BYTES; }
+            else if(arg.startsWith("--sketch=")){ o.sketchBytes = Long.parseLong(arg.substring("--sketch=".length())); }
+            else{ paths.add(arg); }
+        }
+        if(metrics){ Metrics.SetEnabled(true); }
+        if(paths.size() == 1 && !isGlob(paths.get(0)) && !Files.isDirectory(Paths.get(paths.get(0)))){
+            o.run(paths.get(0));
+            printMetrics();
+            if(watchMillis > 0){ o.watch(watchMillis); }
+        }
+        else{
+            o.runCorpus(paths, concurrency);
+            printMetrics();
+        }
     }
 
     private void run(String filePath){
+        if(isLarge(filePath)){
+            runLarge(filePath);
+            return;
+        }
+        if(sketchBytes > 0){ s.SetSketch(sketchBytes, false); }
         s.Initialise(filePath);
-        System.out.println("Word Count: " + s.WordCount());
-        System.out.println("Line Count: " + s.LineCount());
-        System.out.printf("Avg letters per word: %.1f\n", s.AvgWordLen());
-        System.out.println("Most common letter: " + s.MostCommonString(s.GetCharactersUsed(false),false, false));
+        printStats();
 
         //Some examples of other statistics and tools that are available from the library
         /*
@@ -35,4 +75,232 @@ class Output{
         }
         */
     }
+
+    /** Prints the stats of a file too large for Stats, read as bytes through a ByteDocument */
+    private void runLarge(String filePath){
+        ByteDocument bytes;
+        try{ bytes = new ByteDocument(filePath, false); }
+        catch(IOException e){ e.printStackTrace(); return; }
+        System.out.println("Word Count: " + bytes.WordCount());
+        System.out.println("Line Count: " + bytes.LineCount());
+        System.out.printf("Avg letters per word: %.1f\n", bytes.AvgWordLen());
+        System.out.println("Most common letter: " + bytes.MostCommonCharacter(false));
+        if(sketchBytes > 0){ printSketch(bytes.GetSketch(sketchBytes, false), ""); }
+    }
+
+    /** Whether a file is too large to be held as a single String by Stats */
+    private static boolean isLarge(String filePath){
+        return new File(filePath).length() >= Integer.MAX_VALUE;
+    }
+
+    /** Keeps checking the file for content added to its end, printing the stats again whenever it grows.
+     *  Only the new bytes are read each time, see Stats.Refresh. Runs until the program is stopped
+     * @param millis How long to wait between checks
+     */
+    private void watch(long millis){
+        if(!s.IsInitialised()){ return; }
+        while(true){
+            try{ Thread.sleep(millis); }
+            catch(InterruptedException e){ Thread.currentThread().interrupt(); return; }
+            long read = s.Refresh();
+            if(read > 0){
+                System.out.println("\n... " + read + " more bytes read ...\n");
+                printStats();
+                printMetrics();
+            }
+        }
+    }
+
+    private void printStats(){
+        System.out.println("Word Count: " + s.WordCount());
+        System.out.println("Line Count: " + s.LineCount());
+        System.out.printf("Avg letters per word: %.1f\n", s.AvgWordLen());
+        System.out.println("Most common letter: " + s.MostCommonCharacter(false));
+        if(sketchBytes > 0){ printSketch(s.GetSketch(), ""); }
+    }
+
+    /** Prints how long each operation took and how much it allocated, if --metrics turned measuring on */
+    private static void printMetrics(){
+        if(!Metrics.IsEnabled()){ return; }
+        System.out.println("\n... Metrics ...\n");
+        System.out.print(Metrics.Summary());
+    }
+
+    /** Prints the approximate distinct and most common words from a sketch, with their error bounds */
+    private static void printSketch(Sketch sketch, String indent){
+        System.out.printf("%sDistinct words: ~%d (+/-%.1f%%)\n", indent, sketch.DistinctEstimate(), 100 * sketch.DistinctError());
+        StringJoiner top = new StringJoiner(", ");
+        for(Map.Entry<String, Long> e : sketch.Top(SKETCH_TOP).entrySet()){ top.add(e.getKey() + " (~" + e.getValue() + ")"); }
+        System.out.println(indent + "Most common words: " + top + ", each over by at most " + sketch.CountError());
+    }
+
+    /** The stats gathered from one file of a corpus, which are only counts so that a large corpus can be held
+     *  while it is printed. The file's letters are added to the corpus as soon as it is read, see read */
+    private static final class FileStats{
+        private final String path;
+        private long words;
+        private long lines;
+        private long chars;
+        private String mostCommonLetter = "";
+        private Sketch sketch;
+        private String error;
+
+        FileStats(String path){ this.path = path; }
+    }
+
+    /** Prints the stats of every file in the corpus, then totals over the whole corpus.
+     *  Each file is read on its own thread, virtual threads when the runtime has them,
+     *  with at most 'concurrency' files being read at once. The next file is only handed to
+     *  a thread as another finishes, and each is printed as soon as it has been read, so only
+     *  the files being read are held however large the corpus. A file that fails is reported
+     *  and the rest of the corpus carries on.
+     * @param args        File paths, directories (read recursively) and glob patterns
+     * @param concurrency The most files to read at once
+     */
+    private void runCorpus(List<String> args, int concurrency){
+        if(concurrency < 1){ throw new Error("Concurrency must be at least 1"); }
+        List<String> files = new ArrayList<>();
+        for(String arg : args){ files.addAll(expand(arg)); }
+        if(files.isEmpty()){
+            System.out.println("Corpus: no files matched " + String.join(" ", args));
+            return;
+        }
+        ExecutorService executor = newExecutor(concurrency);
+        CompletionService<FileStats> completed = new ExecutorCompletionService<>(executor);
+        CharFrequency letters = new CharFrequency();
+        // the file each task being run is reading, to name it should the task itself fail
+        Map<Future<FileStats>, String> running = new HashMap<>();
+        Iterator<String> next = files.iterator();
+
+        FileStats total = new FileStats("Corpus");
+        int failed = 0;
+        try{
+            while(true){
+                while(running.size() < concurrency && next.hasNext()){
+                    String file = next.next();
+                    running.put(completed.submit(() -> read(file, sketchBytes, letters)), file);
+                }
+                if(running.isEmpty()){ break; }
+                Future<FileStats> result;
+                FileStats f;
+                try{ result = completed.take(); }
+                catch(InterruptedException e){ Thread.currentThread().interrupt(); return; }
+                String file = running.remove(result);
+                try{ f = result.get(); }
+                catch(InterruptedException e){ Thread.currentThread().interrupt(); return; }
+                catch(ExecutionException e){
+                    f = new FileStats(file);
+                    f.error = e.getCause().toString();
+                }
+                if(f.error != null){
+                    failed++;
+                    System.out.println(f.path + ": FAILED (" + f.error + ")");
+                    continue;
+                }
+                print(f);
+                total.words += f.words;
+                total.lines += f.lines;
+                total.chars += f.chars;
+                if(f.sketch != null){
+                    if(total.sketch == null){ total.sketch = f.sketch.Empty(); }
+                    total.sketch.Merge(f.sketch);
+                }
+            }
+        }
+        finally{ executor.shutdownNow(); }
+        synchronized(letters){ total.mostCommonLetter = letters.MostCommon(false); }
+        System.out.println("\nCorpus: " + (files.size() - failed) + " files read, " + failed + " failed");
+        if(failed < files.size()){ print(total); }
+    }
+
+    /** Reads one file of a corpus, catching anything that goes wrong
+     * @param sketchBytes Memory for a sketch of the file's words, 0 for none
+     * @param letters     The letters of the corpus, which the file's letters are added to once it has been read
+     */
+    private static FileStats read(String file, long sketchBytes, CharFrequency letters){
+        FileStats f = new FileStats(file);
+        if(!Files.isReadable(Paths.get(file))){
+            f.error = "cannot be read";
+            return f;
+        }
+        try{
+            if(isLarge(file)){
+                ByteDocument bytes = new ByteDocument(file, false);
+                f.words = bytes.WordCount();
+                f.lines = bytes.LineCount();
+                f.chars = bytes.CharCount();
+                if(sketchBytes > 0){ f.sketch = bytes.GetSketch(sketchBytes, false); }
+                addLetters(f, bytes.GetCharFrequency(), letters);
+                return f;
+            }
+            Stats stats = new Stats();
+            if(sketchBytes > 0){ stats.SetSketch(sketchBytes, false); }
+            stats.Initialise(file);
+            if(!stats.IsInitialised()){
+                f.error = "could not be read";
+                return f;
+            }
+            f.words = stats.WordCount();
+            f.lines = stats.LineCount();
+            f.chars = stats.CharCount();
+            if(sketchBytes > 0){ f.sketch = stats.GetSketch(); }
+            addLetters(f, stats.GetCharFrequency(), letters);
+        }
+        catch(Exception | Error e){ f.error = e.toString(); }
+        return f;
+    }
+
+    /** Keeps only the most common of a file's letters, adding them all to the corpus */
+    private static void addLetters(FileStats f, CharFrequency fileLetters, CharFrequency letters){
+        f.mostCommonLetter = fileLetters.MostCommon(false);
+        synchronized(letters){ letters.Add(fileLetters); }
+    }
+
+    private static void print(FileStats f){
+        System.out.println(f.path);
+        System.out.println("   Word Count: " + f.words);
+        System.out.println("   Line Count: " + f.lines);
+        System.out.printf("   Avg letters per word: %.1f\n", f.words == 0 ? 0f : (float) f.chars / f.words);
+        System.out.println("   Most common letter: " + f.mostCommonLetter);
+        if(f.sketch != null){ printSketch(f.sketch, "   "); }
+    }
+
+    /** Expands a corpus argument into the files it names, in sorted order.
+     *  A directory gives every file below it, a glob pattern every file below its
+     *  fixed leading directories that matches it */
+    private static List<String> expand(String arg){
+        Path root = Paths.get(arg);
+        PathMatcher matcher = null;
+        if(isGlob(arg)){
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+            int wildcard = arg.length();
+            for(char c : "*?[{".toCharArray()){
+                if(arg.indexOf(c) >= 0){ wildcard = Math.min(wildcard, arg.indexOf(c)); }
+            }
+            int slash = Math.max(arg.lastIndexOf('/', wildcard), arg.lastIndexOf(File.separatorChar, wildcard));
+            root = Paths.get(slash < 0 ? "" : arg.substring(0, slash + 1));
+        }
+        if(!Files.isDirectory(root)){ return Collections.singletonList(arg); }
+        PathMatcher glob = matcher;
+        try(Stream<Path> walk = Files.walk(root)){
+            List<String> files = new ArrayList<>();
+            walk.filter(Files::isRegularFile)
+                .filter(p -> glob == null || glob.matches(p))
+                .forEach(p -> files.add(p.toString()));
+            Collections.sort(files);
+            return files;
+        }
+        catch(IOException e){ throw new UncheckedIOException(e); }
+    }
+
+    private static boolean isGlob(String arg){
+        return arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0 || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
+    }
+
+    /** Gets an executor running each task on a virtual thread when the runtime supports them (Java 21+),
+     *  otherwise a pool of platform threads */
+    private static ExecutorService newExecutor(int concurrency){
+        try{ return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null); }
+        catch(ReflectiveOperationException e){ return Executors.newFixedThreadPool(concurrency); }
+    }
 }
@@ -0,0 +1,131 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/** A thread safe, least recently used cache of compiled regex Patterns
+ *  <p>Patterns are keyed by their regex and compile flags. Once the cache holds its
+ *  maximum number of patterns, the least recently used one is dropped for each new one.</p>
+ *  <p>Looking up a cached pattern takes no lock, so any number of threads, such as those querying
+ *  snapshots, can use the cache at once. Only a lookup that has to compile a pattern, and changes
+ *  to the size, lock the cache.</p>
+ */
+class PatternCache{
+
+    /** A regex and the flags it is compiled with */
+    private static final class Key{
+        private final String regex;
+        private final int flags;
+
+        Key(String regex, int flags){
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key)){ return false; }
+            Key k = (Key) o;
+            return flags == k.flags && regex.equals(k.regex);
+        }
+
+        @Override
+        public int hashCode(){ return 31 * regex.hashCode() + flags; }
+    }
+
+    /** A compiled pattern and when it was last used */
+    private static final class Entry{
+        private final Pattern pattern;
+        private volatile long lastUsed;
+
+        Entry(Pattern pattern){ this.pattern = pattern; }
+    }
+
+    private final ConcurrentHashMap<Key, Entry> patterns = new ConcurrentHashMap<>();
+    // advanced each time a pattern other than the most recently used one is used, ordering the entries by use
+    private final AtomicLong clock = new AtomicLong();
+    private volatile int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** Creates an empty cache
+     * @param maxSize The most patterns to hold at once
+     */
+    PatternCache(int maxSize){ SetMaxSize(maxSize); }
+
+    /** Gets the compiled pattern for a regex, compiling it only if it is not already cached
+     * @param  regex The regex expression as a string
+     * @param  flags The flags to compile with, as for Pattern.compile(String, int)
+     * @return       The compiled pattern
+     */
+    public Pattern Get(String regex, int flags){
+        Key key = new Key(regex, flags);
+        Entry cached = patterns.get(key);
+        if(cached != null){
+            hits.increment();
+            Use(cached);
+            return cached.pattern;
+        }
+        misses.increment();
+        Pattern p = Pattern.compile(regex, flags);
+        synchronized(this){
+            if(maxSize > 0){
+                Entry entry = new Entry(p);
+                entry.lastUsed = clock.incrementAndGet();
+                patterns.put(key, entry);
+                Trim(maxSize);
+            }
+        }
+        return p;
+    }
+
+    /** Sets the most patterns to hold at once, dropping the least recently used patterns if there are more
+     * @param maxSize The most patterns to hold, 0 disables caching
+     */
+    public synchronized void SetMaxSize(int maxSize){
+        if(maxSize < 0){ throw new Error("Cache size cannot be negative"); }
+        this.maxSize = maxSize;
+        Trim(maxSize);
+    }
+
+    /** Gets the most patterns held at once */
+    public int MaxSize(){ return maxSize; }
+
+    /** Gets the number of patterns currently held */
+    public int Size(){ return patterns.size(); }
+
+    /** Gets the number of lookups that found an already compiled pattern */
+    public long Hits(){ return hits.sum(); }
+
+    /** Gets the number of lookups that had to compile a pattern */
+    public long Misses(){ return misses.sum(); }
+
+    /** Removes every pattern and resets the hit and miss counts */
+    public synchronized void Clear(){
+        patterns.clear();
+        hits.reset();
+        misses.reset();
+    }
+
+    /** Marks a pattern as the most recently used. The clock is only advanced if it was not already,
+     *  so threads all using the same pattern do not write to anything shared */
+    private void Use(Entry entry){
+        if(entry.lastUsed != clock.get()){ entry.lastUsed = clock.incrementAndGet(); }
+    }
+
+    /** Drops the least recently used patterns until there are no more than a number left, holding the lock */
+    private void Trim(int most){
+        while(patterns.size() > most){
+            Key eldest = null;
+            long oldest = Long.MAX_VALUE;
+            for(Map.Entry<Key, Entry> e : patterns.entrySet()){
+                if(e.getValue().lastUsed < oldest){
+                    oldest = e.getValue().lastUsed;
+                    eldest = e.getKey();
+                }
+            }
+            patterns.remove(eldest);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/** A binary file kept beside a text file, holding the state Stats computes from it
+ *  <p>Reopening an unchanged file reads its line and word indices, counts and optional
+ *  token index straight from the memory mapped sidecar instead of tokenizing it again.
+ *  The source file's size, modification time and CRC32C are stored. Read only looks further
+ *  into a sidecar whose size and modification time match the file's, and the caller then
+ *  checks the CRC32C as it reads the file in, see ReadSource, so a hit reads the file once.
+ *  A magic number, version and a CRC32C over the sidecar's own contents catch a corrupt
+ *  sidecar. A stale or corrupt sidecar gives null or a mismatched hash and the caller
+ *  rebuilds it.</p>
+ *  <p>Layout, big endian: magic, version, source size, source modified time, source CRC32C,
+ *  flags, line count, word count, char count, lineIndex, wordIndex, then the document as
+ *  UTF-8 if decoding the source does not give it exactly, then the token index if it was
+ *  built, and finally the CRC32C of everything before it.</p>
+ */
+class Sidecar{
+
+    static final String EXTENSION = ".stats";
+    /** "STATSIDX" */
+    private static final long MAGIC = 0x5354415453494458L;
+    private static final int VERSION = 1;
+    private static final int HAS_DOCUMENT = 1;
+    private static final int HAS_TOKENS = 2;
+    private static final long MAP_WINDOW = 1L << 28;
+
+    /** Identifies one version of a source file */
+    static final class Source{
+        private final long size;
+        private final long modified;
+        private final long hash;
+
+        /** Identifies a version of a file
+         * @param size     The size of the file in bytes
+         * @param modified The file's modification time in milliseconds, read before the file was
+         * @param hash     The CRC32C of the whole file
+         */
+        Source(long size, long modified, long hash){
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        /** Gets the size of the file in bytes */
+        long Size(){ return size; }
+
+        /** Gets the file's modification time in milliseconds */
+        long Modified(){ return modified; }
+
+        /** Gets the CRC32C of the whole file */
+        long Hash(){ return hash; }
+    }
+
+    private Source source;
+    private int[] lineIndex;
+    private int[] wordIndex;
+    private int charCount;
+    private String document;
+    private TokenIndex tokens;
+
+    private Sidecar(){}
+
+    /** Gets the path of the sidecar for a source file, the same name with '.stats' added */
+    static Path PathFor(Path source){ return source.resolveSibling(source.getFileName() + EXTENSION); }
+
+    /** Gets the source file the state was computed from */
+    Source Source(){ return source; }
+
+    /** Gets the index in the document of the start of each line */
+    int[] LineIndex(){ return lineIndex; }
+
+    /** Gets the index in the document of the start of each word */
+    int[] WordIndex(){ return wordIndex; }
+
+    /** Gets the number of non-whitespace characters */
+    int CharCount(){ return charCount; }
+
+    /** Gets the document, null if it is the source decoded as it is, see ReadSource */
+    String Document(){ return document; }
+
+    /** Gets the token index, null if none was stored */
+    TokenIndex Tokens(){ return tokens; }
+
+    /** Reads a whole source file once, hashing it and optionally decoding it as UTF-8.
+     *  Decoding gives the same text as Stats reading it in when no line terminators are rewritten
+     * @param  path   The source file
+     * @param  crc    Updated with every byte of the file
+     * @param  decode Should the file be decoded? If not it is only hashed
+     * @return        The decoded file, null if not decoding
+     */
+    static String ReadSource(Path path, CRC32C crc, boolean decode) throws IOException{
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(!decode){
+                for(long position = 0; position < size; position += MAP_WINDOW){
+                    crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+                }
+                return null;
+            }
+            if(size >= Integer.MAX_VALUE){ throw new Error("File is too large to be held as a single document"); }
+            byte[] bytes = new byte[(int) size];
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes.length).get(bytes);
+            crc.update(bytes);
+            // malformed input is replaced just as the decoder used by Stats replaces it
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Gets the CRC32C of two blocks of bytes one after the other from the CRC32C of each, as zlib's crc32_combine does.
+     *  Lets the CRC32C of a file be built from chunks hashed separately, in parallel
+     * @param  first        The CRC32C of the first block
+     * @param  second       The CRC32C of the second block
+     * @param  secondLength The length of the second block in bytes
+     * @return              The CRC32C of both blocks
+     */
+    static long Combine(long first, long second, long secondLength){
+        if(secondLength <= 0){ return first; }
+        // odd and even powers of the operator that feeds one zero bit through the reversed CRC32C polynomial
+        int[] odd = new int[32];
+        int[] even = new int[32];
+        odd[0] = 0x82F63B78;
+        for(int n = 1; n < 32; n++){ odd[n] = 1 << (n - 1); }
+        Square(even, odd);
+        Square(odd, even);
+        int crc = (int) first;
+        // feed secondLength zero bytes through the first CRC, a bit of the length at a time
+        do{
+            Square(even, odd);
+            if((secondLength & 1) != 0){ crc = Times(even, crc); }
+            secondLength >>= 1;
+            if(secondLength == 0){ break; }
+            Square(odd, even);
+            if((secondLength & 1) != 0){ crc = Times(odd, crc); }
+            secondLength >>= 1;
+        }while(secondLength != 0);
+        return (crc ^ (int) second) & 0xFFFFFFFFL;
+    }
+
+    /** Multiplies a vector by a matrix over GF(2), each int a row of 32 bits */
+    private static int Times(int[] matrix, int vector){
+        int sum = 0;
+        for(int i = 0; vector != 0; i++, vector >>>= 1){
+            if((vector & 1) != 0){ sum ^= matrix[i]; }
+        }
+        return sum;
+    }
+
+    private static void Square(int[] square, int[] matrix){
+        for(int n = 0; n < 32; n++){ square[n] = Times(matrix, matrix[n]); }
+    }
+
+    /** Writes a sidecar, through a temporary file so a reader never sees it half written
+     * @param path      Where to write the sidecar
+     * @param source    The source file the state was computed from
+     * @param lineIndex The index in the document of the start of each line
+     * @param wordIndex The index in the document of the start of each word
+     * @param charCount The number of non-whitespace characters
+     * @param document  The document, or null if it is the source decoded as it is
+     * @param tokens    The token index, or null if it was not built
+     */
+    static void Write(Path path, Source source, int[] lineIndex, int[] wordIndex, int charCount, String document, TokenIndex tokens) throws IOException{
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try{
+            try(OutputStream file = Files.newOutputStream(temp)){
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32C());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(source.size);
+                out.writeLong(source.modified);
+                out.writeLong(source.hash);
+                out.writeInt((document != null ? HAS_DOCUMENT : 0) | (tokens != null ? HAS_TOKENS : 0));
+                out.writeInt(lineIndex.length);
+                out.writeInt(wordIndex.length);
+                out.writeInt(charCount);
+                WriteInts(out, lineIndex);
+                WriteInts(out, wordIndex);
+                if(document != null){
+                    byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                if(tokens != null){ tokens.Write(out); }
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+            }
+            try{ Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+            catch(AtomicMoveNotSupportedException e){ Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING); }
+        }
+        finally{ Files.deleteIfExists(temp); }
+    }
+
+    /** Reads a sidecar by memory mapping it, if it was written for a file of the same size and modification time.
+     *  The caller must still check the file's hash against Source().Hash()
+     * @param  path     The sidecar to read
+     * @param  size     The size of the source file as it is now
+     * @param  modified The modification time of the source file as it is now, in milliseconds
+     * @return          The stored state, null if there is no sidecar or it is stale or corrupt
+     */
+    static Sidecar Read(Path path, long size, long modified){
+        if(!Files.isRegularFile(path)){ return null; }
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long length = channel.size();
+            if(length < Long.BYTES * 5 || length >= Integer.MAX_VALUE){ return null; }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if(in.getLong() != MAGIC || in.getInt() != VERSION){ return null; }
+            Source stored = new Source(in.getLong(), in.getLong(), in.getLong());
+            if(stored.size != size || stored.modified != modified){ return null; }
+            CRC32C crc = new CRC32C();
+            crc.update(in.duplicate().position(0).limit((int) length - Long.BYTES));
+            if(crc.getValue() != in.getLong((int) length - Long.BYTES)){ return null; }
+
+            Sidecar sidecar = new Sidecar();
+            sidecar.source = stored;
+            int flags = in.getInt();
+            sidecar.lineIndex = new int[in.getInt()];
+            sidecar.wordIndex = new int[in.getInt()];
+            sidecar.charCount = in.getInt();
+            ReadInts(in, sidecar.lineIndex);
+            ReadInts(in, sidecar.wordIndex);
+            if((flags & HAS_DOCUMENT) != 0){
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                sidecar.document = new String(bytes, StandardCharsets.UTF_8);
+            }
+            if((flags & HAS_TOKENS) != 0){ sidecar.tokens = TokenIndex.Read(in); }
+            if(in.position() != length - Long.BYTES){ return null; }
+            return sidecar;
+        }
+        catch(IOException | BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e){
+            return null;
+        }
+    }
+
+    /** Writes ints in bulk through a fixed buffer */
+    private static void WriteInts(OutputStream out, int[] values) throws IOException{
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        IntBuffer ints = buffer.asIntBuffer();
+        for(int i = 0; i < values.length; i += ints.capacity()){
+            int n = Math.min(ints.capacity(), values.length - i);
+            ints.clear();
+            ints.put(values, i, n);
+            out.write(buffer.array(), 0, n * Integer.BYTES);
+        }
+    }
+
+    /** Copies ints from the buffer in bulk, leaving it positioned after them */
+    private static void ReadInts(ByteBuffer in, int[] into){
+        in.asIntBuffer().get(into);
+        in.position(in.position() + into.length * Integer.BYTES);
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Approximate token statistics in a fixed amount of memory, built in one streaming pass
+ *  <p>Tokens are runs of word characters, as TopK counts. Three sketches are kept:</p>
+ *  <ul>
+ *  <li> A HyperLogLog of 2^precision one byte registers estimates the number of distinct tokens,
+ *       with a relative standard error of 1.04 / sqrt(2^precision), see DistinctError </li>
+ *  <li> A Count-Min sketch of depth rows of width counters estimates how often each token is used.
+ *       An estimate is never below the true count, and is above it by no more than
+ *       e / width * TokenCount() with probability 1 - e^-depth, see CountError </li>
+ *  <li> Up to heavyHitters candidates for the most frequent tokens, each with its Count-Min estimate.
+ *       Tokens used much more than TokenCount() / heavyHitters times are reliably among them </li>
+ *  </ul>
+ *  <p>Sketches with the same settings can be merged, so parts of a text or a corpus can be sketched on
+ *  separate threads and combined. Counts and distinct estimates merge exactly, as if every part had been
+ *  added to one sketch.</p>
+ *  <p>Case insensitive sketches fold US-ASCII letters only, as TopK and TokenCount do.</p>
+ */
+final class Sketch{
+
+    /** Count-Min rows, a one in e^5 (under 1%) chance that a count is over its error bound */
+    private static final int DEPTH = 5;
+    /** Candidates kept for the most frequent tokens */
+    private static final int HEAVY_HITTERS = 128;
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 16;
+    /** Smallest memory a sketch can be given, in bytes */
+    static final long MIN_MEMORY = 1 << 10;
+
+    private final int precision;
+    private final int width;
+    private final int depth;
+    private final int heavyHitters;
+    private final boolean caseSensitive;
+    private final byte[] registers;
+    private final long[] counts;
+    private long tokens = 0;
+    /** Candidates for the most frequent tokens, folded if case insensitive, and their estimated counts */
+    private final HashMap<String, Long> candidates = new HashMap<>();
+    /** The lowest estimate among the candidates, a new token must beat this once they are full */
+    private long minCandidate = 0;
+
+    /** Creates an empty sketch sized to fit in about the given memory.
+     *  <p>About one sixteenth of it, up to 64KB, goes to the distinct estimate and the rest to the counts</p>
+     * @param memoryBytes   The memory to use in bytes, at least MIN_MEMORY
+     * @param caseSensitive Should tokens differing only by case be counted separately?
+     */
+    Sketch(long memoryBytes, boolean caseSensitive){
+        this(PrecisionFor(memoryBytes), WidthFor(memoryBytes), DEPTH, HEAVY_HITTERS, caseSensitive);
+    }
+
+    /** Creates an empty sketch
+     * @param precision     The distinct estimate has 2^precision registers, from 4 to 16
+     * @param width         The number of counters in each Count-Min row
+     * @param depth         The number of Count-Min rows
+     * @param heavyHitters  The number of candidates kept for the most frequent tokens
+     * @param caseSensitive Should tokens differing only by case be counted separately?
+     */
+    Sketch(int precision, int width, int depth, int heavyHitters, boolean caseSensitive){
+        if(precision < MIN_PRECISION || precision > MAX_PRECISION){ throw new Error("Precision must be from " + MIN_PRECISION + " to " + MAX_PRECISION); }
+        if(width < 1 || depth < 1 || heavyHitters < 0){ throw new Error("Sketch sizes must be positive"); }
+        if((long) width * depth > Integer.MAX_VALUE){ throw new Error("Sketch is too large"); }
+        this.precision = precision;
+        this.width = width;
+        this.depth = depth;
+        this.heavyHitters = heavyHitters;
+        this.caseSensitive = caseSensitive;
+        registers = new byte[1 << precision];
+        counts = new long[width * depth];
+    }
+
+    /** Creates an empty sketch with the same settings as this one, that it can be merged with */
+    Sketch Empty(){ return new Sketch(precision, width, depth, heavyHitters, caseSensitive); }
+
+    /** Creates a copy of this sketch, which can be added to or merged without changing this one */
+    Sketch Copy(){
+        Sketch copy = Empty();
+        System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        copy.tokens = tokens;
+        copy.candidates.putAll(candidates);
+        copy.minCandidate = minCandidate;
+        return copy;
+    }
+
+    /** Adds every token of part of a text
+     * @param text  The text
+     * @param start The index in text to start at
+     * @param end   The index in text to stop before
+     */
+    void Add(CharSequence text, int start, int end){
+        int tokenStart = -1;
+        for(int i = start; i < end; ){
+            int cp = Character.codePointAt(text, i);
+            if(Stats.IsWordChar(cp)){ if(tokenStart < 0){ tokenStart = i; } }
+            else if(tokenStart >= 0){
+                AddToken(text, tokenStart, i);
+                tokenStart = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        if(tokenStart >= 0){ AddToken(text, tokenStart, end); }
+    }
+
+    /** Takes away the tokens of part of a text, which must have been added before.
+     *  Counts are reduced exactly, but the distinct estimate still includes any token that is no longer used
+     * @param text  The text
+     * @param start The index in text to start at
+     * @param end   The index in text to stop before
+     */
+    void Remove(CharSequence text, int start, int end){
+        int tokenStart = -1;
+        for(int i = start; i < end; ){
+            int cp = Character.codePointAt(text, i);
+            if(Stats.IsWordChar(cp)){ if(tokenStart < 0){ tokenStart = i; } }
+            else if(tokenStart >= 0){
+                RemoveToken(text, tokenStart, i);
+                tokenStart = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        if(tokenStart >= 0){ RemoveToken(text, tokenStart, end); }
+    }
+
+    /** Adds everything counted by another sketch, which must have the same settings, to this one */
+    void Merge(Sketch other){
+        if(other.precision != precision || other.width != width || other.depth != depth
+           || other.heavyHitters != heavyHitters || other.caseSensitive != caseSensitive){
+            throw new Error("Cannot merge sketches with different settings");
+        }
+        for(int i = 0; i < registers.length; i++){ registers[i] = (byte) Math.max(registers[i], other.registers[i]); }
+        for(int i = 0; i < counts.length; i++){ counts[i] += other.counts[i]; }
+        tokens += other.tokens;
+        List<String> merged = new ArrayList<>(candidates.keySet());
+        for(String token : other.candidates.keySet()){ if(!candidates.containsKey(token)){ merged.add(token); } }
+        candidates.clear();
+        for(String token : merged){ candidates.put(token, Estimate(Hash(token, 0, token.length()))); }
+        while(candidates.size() > heavyHitters){ candidates.remove(Lowest()); }
+        minCandidate = candidates.isEmpty() ? 0 : candidates.get(Lowest());
+    }
+
+    /** Gets the total number of tokens added */
+    public long TokenCount(){ return tokens; }
+
+    /** Estimates the number of distinct tokens added */
+    public long DistinctEstimate(){
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for(byte r : registers){
+            sum += 1.0 / (1L << r);
+            if(r == 0){ zeros++; }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        // small cardinalities are better estimated by how many registers are still empty
+        if(estimate <= 2.5 * m && zeros > 0){ estimate = m * Math.log((double) m / zeros); }
+        return Math.round(estimate);
+    }
+
+    /** Gets the relative standard error of DistinctEstimate */
+    public double DistinctError(){ return 1.04 / Math.sqrt(registers.length); }
+
+    /** Estimates how often a token was added, never less than the true count
+     * @param  token The token, made only of word characters
+     * @return       The estimated count, at most CountError() over the true count with probability CountConfidence()
+     */
+    public long Count(String token){ return Estimate(Hash(token, 0, token.length())); }
+
+    /** Gets the most a count should be over by, e / width of all the tokens added */
+    public long CountError(){ return (long) Math.ceil(Math.E / width * tokens); }
+
+    /** Gets the chance that a count is within CountError of the true count, 1 - e^-depth */
+    public double CountConfidence(){ return 1 - Math.exp(-depth); }
+
+    /** Finds the most frequent tokens with their estimated counts.
+     *  <p>Tokens used much more than TokenCount() / heavyHitters times are found, but tokens used less often than
+     *  that may be missed or ranked out of place. Ties are in alphabetical order</p>
+     * @param  k The number of tokens to find, at most the number of heavy hitter candidates are ever returned
+     * @return   The tokens, folded to lower case if the sketch is case insensitive, in descending order of estimate
+     */
+    public LinkedHashMap<String, Long> Top(int k){
+        if(k < 0){ throw new Error("Cannot get a negative number of strings"); }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(candidates.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        LinkedHashMap<String, Long> ret = new LinkedHashMap<>();
+        for(int i = 0; i < Math.min(k, entries.size()); i++){ ret.put(entries.get(i).getKey(), entries.get(i).getValue()); }
+        return ret;
+    }
+
+    /** Gets the memory used by the registers and counters, in bytes */
+    public long MemoryBytes(){ return registers.length + 8L * counts.length; }
+
+    private void AddToken(CharSequence text, int start, int end){
+        long hash = Hash(text, start, end);
+        tokens++;
+        int register = (int) (hash >>> (64 - precision));
+        byte rank = (byte) (Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1);
+        if(rank > registers[register]){ registers[register] = rank; }
+        long second = Mix(hash);
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++){
+            int at = row * width + Column(hash, second, row);
+            estimate = Math.min(estimate, ++counts[at]);
+        }
+        Offer(text, start, end, estimate);
+    }
+
+    private void RemoveToken(CharSequence text, int start, int end){
+        long hash = Hash(text, start, end);
+        tokens--;
+        long second = Mix(hash);
+        for(int row = 0; row < depth; row++){ counts[row * width + Column(hash, second, row)]--; }
+        String token = Folded(text, start, end);
+        if(candidates.containsKey(token)){
+            candidates.put(token, Estimate(hash));
+            minCandidate = candidates.get(Lowest());
+        }
+    }
+
+    /** Keeps a token among the heavy hitter candidates if its estimate is high enough.
+     *  A token already among them always is, as its estimate has only grown since it was last offered */
+    private void Offer(CharSequence text, int start, int end, long estimate){
+        if(heavyHitters == 0 || candidates.size() >= heavyHitters && estimate <= minCandidate){ return; }
+        String token = Folded(text, start, end);
+        Long previous = candidates.put(token, estimate);
+        if(previous == null && candidates.size() > heavyHitters){ candidates.remove(Lowest()); }
+        else if(previous != null && previous != minCandidate){ return; }
+        minCandidate = candidates.get(Lowest());
+    }
+
+    /** Gets the candidate with the lowest estimate, the last alphabetically on a tie */
+    private String Lowest(){
+        String lowest = null;
+        long min = Long.MAX_VALUE;
+        for(Map.Entry<String, Long> e : candidates.entrySet()){
+            long count = e.getValue();
+            if(lowest == null || count < min || count == min && e.getKey().compareTo(lowest) > 0){
+                lowest = e.getKey();
+                min = count;
+            }
+        }
+        return lowest;
+    }
+
+    private long Estimate(long hash){
+        long second = Mix(hash);
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++){ estimate = Math.min(estimate, counts[row * width + Column(hash, second, row)]); }
+        return estimate;
+    }
+
+    /** Gets the counter in a row for a token, double hashing from two independent hashes */
+    private int Column(long hash, long second, int row){ return (int) Long.remainderUnsigned(hash + row * second, width); }
+
+    /** Hashes the folded characters of a token with FNV-1a, then mixes the bits so every bit is usable */
+    private long Hash(CharSequence text, int start, int end){
+        long h = 0xcbf29ce484222325L;
+        for(int i = start; i < end; i++){ h = (h ^ Fold(text.charAt(i))) * 0x100000001b3L; }
+        return Mix(h);
+    }
+
+    private String Folded(CharSequence text, int start, int end){
+        char[] chars = new char[end - start];
+        for(int i = start; i < end; i++){ chars[i - start] = Fold(text.charAt(i)); }
+        return new String(chars);
+    }
+
+    private char Fold(char c){ return caseSensitive ? c : Stats.Fold(c); }
+
+    /** The 64 bit finaliser of MurmurHash3 */
+    private static long Mix(long h){
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static int PrecisionFor(long memoryBytes){
+        if(memoryBytes < MIN_MEMORY){ throw new Error("A sketch needs at least " + MIN_MEMORY + " bytes"); }
+        return Math.min(MAX_PRECISION, 63 - Long.numberOfLeadingZeros(memoryBytes / 16));
+    }
+
+    private static int WidthFor(long memoryBytes){
+        long width = (memoryBytes - (1L << PrecisionFor(memoryBytes))) / (8L * DEPTH);
+        return (int) Math.min(width, Integer.MAX_VALUE / DEPTH);
+    }
+}
@@ -2,12 +2,25 @@ import java.util.Scanner;
 import java.util.List;
 import java.util.ArrayList;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.lang.Object;
 import java.util.regex.*;
 import java.util.TreeMap;
 import java.util.Map;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32C;
 
 /** A class for reading in text files and producing statistics on them
  *  <p>Standard statistics are available directly through getters, see all
@@ -23,13 +36,69 @@ import java.util.*;
  */
 class Stats{
 
+    /** Smallest part of a file, in bytes, that a parallel Initialise will give to one task */
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    /** Number of chunks a parallel Initialise splits a file into for each thread, to balance the load */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /** Number of bytes at each end of the read in part of a file hashed to tell whether it has been rewritten, see PrefixHash */
+    private static final int PREFIX_WINDOW = 1 << 16;
+    /** Default number of compiled regex patterns kept for reuse */
+    private static final int PATTERN_CACHE_SIZE = 256;
+
+    /** Compiled regex patterns shared by every Stats object */
+    private static final PatternCache patternCache = new PatternCache(PATTERN_CACHE_SIZE);
+
+    // operations measured while metrics are on, see Metrics
+    private static final Metrics.Operation initialiseMetric = Metrics.For("Initialise");
+    private static final Metrics.Operation sidecarMetric = Metrics.For("LoadSidecar");
+    private static final Metrics.Operation appendMetric = Metrics.For("Append");
+    private static final Metrics.Operation indexesMetric = Metrics.For("BuildIndexes");
+    private static final Metrics.Operation refreshMetric = Metrics.For("Refresh");
+    private static final Metrics.Operation scannerMetric = Metrics.For("InitialiseWithScanner");
+    private static final Metrics.Operation scanInMetric = Metrics.For("ScanIn");
+    private static final Metrics.Operation processLineMetric = Metrics.For("ProcessLine");
+    private static final Metrics.Operation processWordsMetric = Metrics.For("ProcessWords");
+    private static final Metrics.Operation countMetric = Metrics.For("CountOcurranceString");
+    private static final Metrics.Operation stringsCountMetric = Metrics.For("StringsCount");
+    private static final Metrics.Operation mostCommonMetric = Metrics.For("MostCommonString");
+    private static final Metrics.Operation mapMetric = Metrics.For("MapFromRegex");
+    private static final Metrics.Operation matchesMetric = Metrics.For("MatchesFromRegex");
+    private static final Metrics.Operation uniqueMetric = Metrics.For("UniqueStrings");
+    private static final Metrics.Operation topKMetric = Metrics.For("TopK");
+    private static final Metrics.Operation nGramsMetric = Metrics.For("GetNGrams");
+    private static final Metrics.Operation charFrequencyMetric = Metrics.For("GetCharFrequency");
+
     private String document = "";
-    private int[] lineIndex;
-    private int[] wordIndex;
+    private IntList lineIndex;
+    private IntList wordIndex;
     private int lineCount = 0;
     private int wordCount = 0;
     private int charCount = 0;
     private boolean initialised = false;
+    private boolean buildTokenIndex = false;
+    private long sketchBytes = 0;
+    private boolean sketchCaseSensitive = false;
+    private int parallelism = 1;
+    private long minChunkSize = MIN_CHUNK_SIZE;
+    private boolean useSidecar = false;
+    // whether the document differs from the decoded file, as line terminators were rewritten
+    private boolean documentRewritten = false;
+    private boolean loadedFromSidecar = false;
+    // the file read in by Initialise, how many of its bytes have been read, when it was modified and where its last complete line ends
+    private Path loadedPath;
+    private long loadedBytes = 0;
+    private long loadedModified = 0;
+    private long committedBytes = 0;
+    // a hash of the file up to the end of its last complete line, see PrefixHash
+    private long committedHash = 0;
+    private TokenIndex tokenIndex;
+    private Sketch sketch;
+    // whether a snapshot shares the token index and sketch, so they must be copied before they are changed
+    private boolean indexesShared = false;
+    // whether a snapshot shares the line and word offsets, so they must be copied before any it holds are overwritten
+    private boolean offsetsShared = false;
+    // built on first use, at most once even when a snapshot is queried from several threads
+    private volatile CharFrequency charFrequency;
 
     /** Creates an empty Stats instance
      * @see     Stats(String)
@@ -43,21 +112,153 @@ class Stats{
          */
     Stats(String filePath){ Initialise(filePath);}
 
+    /** Sets whether Initialise also builds an index of every distinct token in the document.
+     *  <p>The index lets whole word counts over the document be answered without scanning it,
+     *  see CountOcurranceString, TokenCount and GetTokenWords. Off by default</p>
+     * @param enabled Should the token index be built?
+     */
+    public void SetTokenIndex(boolean enabled){ buildTokenIndex = enabled; }
+
+    /** Sets whether Initialise also sketches the document's tokens, for approximate statistics in bounded memory.
+     *  <p>The sketch estimates the number of distinct tokens, how often each token is used and which tokens are
+     *  the most frequent, with the error bounds documented in Sketch. It is built as each chunk of the file is read,
+     *  on the same threads, see SetParallelism and GetSketch. Off by default</p>
+     * @param memoryBytes   The memory the sketch may use in bytes, at least Sketch.MIN_MEMORY. 0 to turn sketching off
+     * @param caseSensitive Should tokens differing only by case be counted separately?
+     */
+    public void SetSketch(long memoryBytes, boolean caseSensitive){
+        if(memoryBytes != 0 && memoryBytes < Sketch.MIN_MEMORY){ throw new Error("A sketch needs at least " + Sketch.MIN_MEMORY + " bytes"); }
+        sketchBytes = memoryBytes;
+        sketchCaseSensitive = caseSensitive;
+    }
+
+    /** Sets how many threads Initialise uses to read in a file.
+     *  <p>With more than one thread the file is split into chunks at line boundaries which are
+     *  decoded and scanned on a ForkJoinPool, then merged. The results are identical to reading
+     *  it in on one thread. Defaults to 1</p>
+     * @param threads The number of threads to use
+     */
+    public void SetParallelism(int threads){
+        if(threads < 1){ throw new Error("Parallelism must be at least 1"); }
+        parallelism = threads;
+    }
+
     /** Reads in a file ready to produce stats on it
+    * <p>The file is memory mapped and decoded as UTF-8 through a fixed size buffer,
+    * building the document and line index in a single linear pass, see SetParallelism</p>
     * @param filePath The path of the file that you wish to read in
     */
     public void Initialise(String filePath){
+        if(initialised){ throw new Error("Cannot re-initialse an already initialised Stats object. call Reset() first");}
+        if(filePath == null){throw new Error("Please specify text file path as argument, e.g : 'java Stats test.txt'");}
+        Metrics.Timer timer = initialiseMetric.Start();
+        Path path = Paths.get(filePath);
+        long modified;
+        // read before the file is, so a file changed while it is read in leaves a stale sidecar and is read again by Refresh
+        try{ modified = Files.getLastModifiedTime(path).toMillis(); }
+        catch(IOException e){ e.printStackTrace(); return; }
+        if(useSidecar){
+            try{
+                if(LoadSidecar(path, Files.size(path), modified)){
+                    timer.Stop(loadedBytes);
+                    return;
+                }
+            }
+            catch(IOException e){ System.err.println("Sidecar not used, reading " + path + " in: " + e); }
+        }
+        TextChunk[] chunks;
+        sketch = sketchBytes > 0 ? new Sketch(sketchBytes, sketchCaseSensitive) : null;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = channel.size();
+            chunks = MapIn(channel, 0, size, useSidecar);
+            Track(channel, path, size, modified);
+        }
+        catch(IOException e){ e.printStackTrace(); return; }
+        Append(chunks, 0);
+        BuildIndexes();
+        initialised = true;
+        if(useSidecar){
+            // the chunks were hashed as they were decoded, so the file is not read again
+            long hash = 0;
+            for(TextChunk chunk : chunks){ hash = Sidecar.Combine(hash, chunk.Hash(), chunk.ByteCount()); }
+            WriteSidecar(path, new Sidecar.Source(loadedBytes, modified, hash));
+        }
+        timer.Stop(loadedBytes);
+    }
+
+    /** Reads in only what has been added to the end of the file since it was last read, for files that are still being written to such as logs.
+    * <p>A last line without a line terminator is read again along with what follows it, so the result is the same as
+    * reading the whole file in with Initialise. The token index and character frequencies are updated rather than rebuilt.
+    * A file whose size and modification time have not changed is not read at all. A file that has been rewritten rather than
+    * added to, as it has shrunk past its last complete line or what was read of it has changed, is read in again in full,
+    * see PrefixHash. A sidecar is not rewritten, the next Initialise rebuilds it</p>
+    * @return The number of bytes of the file read in, 0 if nothing has been added to it
+    */
+    public long Refresh(){
+        if(!initialised || loadedPath == null){ throw new Error("Nothing to refresh, the file must be read in by Initialise(String) first"); }
+        Metrics.Timer timer = refreshMetric.Start();
+        TextChunk[] chunks;
+        long size;
+        long start = committedBytes;
+        boolean lastLineOpen = committedBytes < loadedBytes;
+        try(FileChannel channel = FileChannel.open(loadedPath, StandardOpenOption.READ)){
+            // read before the file is, so a change made while it is read in is seen by the next refresh
+            long modified = Files.getLastModifiedTime(loadedPath).toMillis();
+            size = channel.size();
+            if(size == loadedBytes && modified == loadedModified){
+                timer.Stop(0);
+                return 0;
+            }
+            if(size < committedBytes || PrefixHash(channel, committedBytes) != committedHash){
+                String filePath = loadedPath.toString();
+                Reset();
+                Initialise(filePath);
+                timer.Stop(loadedBytes);
+                return loadedBytes;
+            }
+            chunks = MapIn(channel, start, size, false);
+            Track(channel, loadedPath, size, modified);
+        }
+        catch(IOException e){ e.printStackTrace(); return 0; }
+        Unshare(lastLineOpen);
+        int keep = lastLineOpen ? DropLastLine() : document.length();
+        int firstNewWord = wordCount;
+        Append(chunks, keep);
+        if(tokenIndex != null){ tokenIndex.AddWords(document, wordIndex, firstNewWord, wordCount); }
+        if(charFrequency != null){ charFrequency.Add(document, keep, document.length()); }
+        timer.Stop(size - start);
+        return size - start;
+    }
+
+    /** Sets whether Initialise keeps a sidecar file beside the file it reads, named as the file with '.stats' added.
+     *  <p>The sidecar holds the line and word indices, counts and token index. While the file's size,
+     *  modification time and checksum still match, Initialise reads the sidecar instead of tokenizing the
+     *  file again, reading the file itself only once to check its checksum and decode it. A stale or corrupt
+     *  sidecar, or one that cannot be read, is rebuilt. Off by default</p>
+     * @param enabled Should a sidecar be used?
+     */
+    public void SetSidecar(boolean enabled){ useSidecar = enabled; }
+
+    /** Reads in a file line by line through a Scanner, the original loader.
+    * <p>Kept as a reference for comparing load times and results against Initialise, see the jmh module's ScannerBenchmark</p>
+    * @param filePath The path of the file that you wish to read in
+    */
+    void InitialiseWithScanner(String filePath){
         if(initialised){ throw new Error("Cannot re-initialse an already initialised Stats object. call Reset() first");}
         if(filePath == null){throw new Error("Please specify text file path as argument, e.g : 'java Stats test.txt'");}
         Scanner scan;
-        ArrayList<Integer> lineInd = new ArrayList<>();
-        ArrayList<Integer> wordInd = new ArrayList<>();
+        IntList lineInd = new IntList();
+        IntList wordInd = new IntList();
+        Metrics.Timer timer = scannerMetric.Start();
         try{ scan = new Scanner(new File(filePath)); }
         catch(Exception e){ e.printStackTrace(); return; }
         ScanIn(scan, lineInd, wordInd);
         scan.close();
-        lineIndex = ConvertToArray(lineInd);
-        wordIndex = ConvertToArray(wordInd);
+        lineIndex = lineInd;
+        wordIndex = wordInd;
+        BuildIndexes();
+        initialised = true;
+        timer.Stop(new File(filePath).length());
     }
 
     /** Resets this Stats object to it's un-initialised state */
@@ -69,9 +270,33 @@ class Stats{
         lineCount = 0;
         wordCount = 0;
         charCount = 0;
+        tokenIndex = null;
+        sketch = null;
+        indexesShared = false;
+        offsetsShared = false;
+        charFrequency = null;
+        documentRewritten = false;
+        loadedFromSidecar = false;
+        loadedPath = null;
+        loadedBytes = 0;
+        loadedModified = 0;
+        committedBytes = 0;
+        committedHash = 0;
         initialised = false;
     }
 
+    /** Takes an immutable copy of the loaded state, which can be shared between threads and queried from all of them at once.
+     *  <p>The snapshot is unaffected by anything done to this object afterwards, such as Refresh or Reset</p>
+     * @return The snapshot
+     */
+    public StatsSnapshot Snapshot(){
+        if(!initialised){ throw new Error("Cannot take a snapshot of an un-initialised Stats object. call Initialise() first"); }
+        return new StatsSnapshot(Copy());
+    }
+
+    /** Whether a file has been successfully read in */
+    public boolean IsInitialised(){ return initialised; }
+
     /** Gets the total number of non-whitespace characers*/
     public int CharCount(){ return charCount; }
 
@@ -90,6 +315,29 @@ class Stats{
     /** Gets the entire document as a single string */
     public String GetDocument(){ return document; }
 
+    /** Gets the cache of compiled regex patterns shared by every Stats object, to size it or read its hit and miss counts */
+    public static PatternCache GetPatternCache(){ return patternCache; }
+
+    /** Gets the number of times a token appears as a whole word in the document, using the token index
+     * @param  token         The token to count, made only of word characters
+     * @param  caseSensitive Should this count be case sensitive?
+     * @return               The count of the token, 0 if it is not in the document
+     */
+    public int TokenCount(String token, boolean caseSensitive){
+        TokenIndex.Postings p = GetTokenIndex().Get(token, caseSensitive);
+        return p == null ? 0 : p.Count();
+    }
+
+    /** Gets the numbers of the words that a token appears in, using the token index
+     * @param  token         The token to look up, made only of word characters
+     * @param  caseSensitive Should this lookup be case sensitive?
+     * @return               Word numbers in document order, which can be passed to GetWordIndex. Null if the token is not in the document
+     */
+    public int[] GetTokenWords(String token, boolean caseSensitive){
+        TokenIndex.Postings p = GetTokenIndex().Get(token, caseSensitive);
+        return p == null ? null : p.Words();
+    }
+
     /** Produces a histogram of words in the form of a TreeMap
      * @param  in            The String to search
      * @param  list          The list of Strings to search for
@@ -100,10 +348,13 @@ class Stats{
      */
     public TreeMap<String, Integer> StringsCount(String in, List<String> list, boolean caseSensitive, boolean wholeWord){
         if(list == null){return null;}
+        Metrics.Timer timer = stringsCountMetric.Start();
         TreeMap<String, Integer> ret  = new  TreeMap<String, Integer>();
-        for(String search : list){
-            ret.put(search, CountOcurranceString(in , search, caseSensitive, wholeWord ) );
+        int[] counts = CountAll(in, list, caseSensitive, wholeWord);
+        for(int i = 0; i < counts.length; i++){
+            ret.put(list.get(i), counts[i]);
         }
+        timer.Stop(2L * in.length());
         return ret;
     }
 
@@ -121,6 +372,21 @@ class Stats{
         return StringsCount(in, list, caseSensitive, wholeWord);
     }
 
+    /** Produces a histogram of words in the form of a TreeMap
+     * @param  in            The String to search
+     * @param  matches       Matches whose Strings are searched for, each distinct String once
+     * @param  caseSensitive Should this search be case sensitive?
+     * @param  wholeWord     Should this search only count whole words?
+     * @return <Strong>Key</Strong> is the word
+     *         <li> <strong>Integer</Strong> is the count of occurances of that word </li>
+     */
+    public TreeMap<String, Integer> StringsCount(String in, MatchList matches, boolean caseSensitive, boolean wholeWord){
+        if(matches == null){ return null; }
+        List<String> list = new ArrayList<String>();
+        for(int match : matches.FirstOfEach(true)){ list.add(matches.Get(match)); }
+        return StringsCount(in, list, caseSensitive, wholeWord);
+    }
+
     /** Produces a histogram of words in the form of a TreeMap
      * @param  in            The String to search
      * @param  arr           An array of String Values to search for
@@ -144,15 +410,17 @@ class Stats{
      */
         public String MostCommonString(List<String> list, boolean caseSensitive, boolean wholeWord){
             if(list == null){return null;}
+            Metrics.Timer timer = mostCommonMetric.Start();
             String ret = null;
             int max = 0;
-            for(String search : list){
-                int count = CountOcurranceString(document , search, caseSensitive, wholeWord);
-                if(max < count){
-                    max = count;
-                    ret = search;
+            int[] counts = CountAll(document, list, caseSensitive, wholeWord);
+            for(int i = 0; i < counts.length; i++){
+                if(max < counts[i]){
+                    max = counts[i];
+                    ret = list.get(i);
                 }
             }
+            timer.Stop(2L * document.length());
             return ret;
         }
 
@@ -164,37 +432,102 @@ class Stats{
      */
 
     /** Gets the number of ocurrances of one string inside another.
+     * <p>With wholeWord the match is taken literally rather than as a regex, and every occurrence
+     * that does not start or end inside a longer word is counted. Whole word matches of a single token
+     * in the document are answered from the token index when there is one</p>
      * @param  in            The String to search
-     * @param  match         The String to find
+     * @param  match         The String to find, as a regex unless wholeWord is set
      * @param  caseSensitive Should this search be case sensitive?
      * @param  wholeWord     Should this search only count whole words?
      * @return               The count of 'match's in 'in'
      */
     public int CountOcurranceString(String in, String match, boolean caseSensitive, boolean wholeWord){
-        String regex = match;
-        if(!caseSensitive){ regex = "(?i)" + regex; }
-        if(wholeWord){ regex = ".*\\b" + regex + "\\b.*"; }
-        Pattern p = Pattern.compile(regex);
-        Matcher m = p.matcher(in);
+        Metrics.Timer timer = countMetric.Start();
+        int count = 0;
+        if(wholeWord && in == document && tokenIndex != null && TokenIndex.IsToken(match)){
+            TokenIndex.Postings postings = tokenIndex.Get(match, caseSensitive);
+            count = postings == null ? 0 : postings.Count();
+            // answered from the index without reading the document
+            timer.Stop(0);
+            return count;
+        }
+        if(wholeWord){ count = CountWholeWords(in, match, caseSensitive); }
+        else{
+            Matcher m = patternCache.Get(match, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE).matcher(in);
+            while(m.find()){ count++; }
+        }
+        timer.Stop(2L * in.length());
+        return count;
+    }
+
+    /** Counts the literal occurrences of a string that do not split a word, scanning the text once.
+     *  Counted occurrences do not overlap, the same counts as AhoCorasick gives one pattern
+     * @param  in            The String to search
+     * @param  match         The String to find, taken literally
+     * @param  caseSensitive Should this search be case sensitive? If not, US-ASCII letters are folded, see Fold
+     * @return               The count of whole word 'match's in 'in', 0 if 'match' is empty
+     */
+    private static int CountWholeWords(String in, String match, boolean caseSensitive){
+        int length = match.length();
+        if(length == 0){ return 0; }
         int count = 0;
-        while(m.find()){ count++; }
+        int start = IndexOf(in, match, 0, caseSensitive);
+        while(start >= 0){
+            int end = start + length;
+            if(AhoCorasick.SplitsWord(in, start) || AhoCorasick.SplitsWord(in, end)){ start = IndexOf(in, match, start + 1, caseSensitive); }
+            else{
+                count++;
+                start = IndexOf(in, match, end, caseSensitive);
+            }
+        }
         return count;
     }
 
+    /** Finds the next literal occurrence of a string, folding US-ASCII letters unless case sensitive
+     * @return The index of the occurrence in 'in', -1 if there are no more */
+    private static int IndexOf(String in, String match, int from, boolean caseSensitive){
+        if(caseSensitive){ return in.indexOf(match, from); }
+        char first = Fold(match.charAt(0));
+        for(int i = from, last = in.length() - match.length(); i <= last; i++){
+            if(Fold(in.charAt(i)) != first){ continue; }
+            int j = 1;
+            while(j < match.length() && Fold(in.charAt(i + j)) == Fold(match.charAt(j))){ j++; }
+            if(j == match.length()){ return i; }
+        }
+        return -1;
+    }
+
     /** Returns a TreeMap containing all the matched strings from the regex and their starting index
      * @param  in    The String to search
      * @param  regex The regex expression to match as a string
      * @return <Strong>Key</Strong> is the starting index of the word
      *         <li> <strong>Value</Strong> is a String that matched the regex expression </li>
+     * @see MatchesFromRegex
      */
     public TreeMap<Integer, String> MapFromRegex(String in, String regex){
-        Pattern p = Pattern.compile(regex);
-        Matcher m = p.matcher(in);
-        TreeMap<Integer, String> ret = new TreeMap<Integer, String>();
+        Metrics.Timer timer = mapMetric.Start();
+        MatchList matches = MatchesFromRegex(in, regex);
+        TreeMap<Integer, String> ret = matches.Size() < 1 ? null : matches.ToMap();
+        timer.Stop(2L * in.length());
+        return ret;
+    }
+
+    /** Finds all the matches of the regex, storing only where each match starts and ends
+     * @param  in    The String to search
+     * @param  regex The regex expression to match as a string
+     * @return       The matches in order, which is empty if there are none
+     */
+    public MatchList MatchesFromRegex(String in, String regex){
+        Metrics.Timer timer = matchesMetric.Start();
+        Matcher m = patternCache.Get(regex, 0).matcher(in);
+        IntList starts = new IntList();
+        IntList ends = new IntList();
         while(m.find()){
-            ret.put(m.start(), m.group());
+            starts.Add(m.start());
+            ends.Add(m.end());
         }
-        if(ret.size() < 1){ return null;}
+        MatchList ret = new MatchList(in, starts.ToArray(), ends.ToArray());
+        timer.Stop(2L * in.length());
         return ret;
     }
 
@@ -204,15 +537,29 @@ class Stats{
     * characters appear in the document
     */
     public List<String> GetCharactersUsed(boolean caseSensitive){
-        List<String> characters = new ArrayList<String>();
-        for(int i = 0; i < document.length(); i++){
-            String s = Character.toString(document.charAt(i));
-            if(!caseSensitive){ s = s.toLowerCase(); }
-            if(!characters.contains(s) && !Character.isWhitespace(s.charAt(0))){
-                     characters.add(s);
-             }
+        return GetCharFrequency().CharactersUsed(caseSensitive);
+    }
+
+    /** Finds the most common non-whitespace character in the document, from the character histogram
+     * @param  caseSensitive Should this search be case sensitive? If false, the character will be in lower case
+     * @return               The most common character, the first found when there is a tie. Null if the document has none
+     */
+    public String MostCommonCharacter(boolean caseSensitive){
+        return GetCharFrequency().MostCommon(caseSensitive);
+    }
+
+    /** Gets how often each character is used in the document, counted in one pass the first time it is asked for */
+    public CharFrequency GetCharFrequency(){
+        CharFrequency frequency = charFrequency;
+        if(frequency != null){ return frequency; }
+        synchronized(this){
+            if(charFrequency == null){
+                Metrics.Timer timer = charFrequencyMetric.Start();
+                charFrequency = new CharFrequency(document);
+                timer.Stop(2L * document.length());
+            }
+            return charFrequency;
         }
-        return characters;
     }
 
     /** Converts a collection of strings to a list of unique strings
@@ -222,12 +569,16 @@ class Stats{
      */
     public List<String> UniqueStrings(List<String> list, boolean caseSensitive){
         if(list == null){ return null; }
-        List<String> ret = new ArrayList<String>();
+        Metrics.Timer timer = uniqueMetric.Start();
+        Set<String> ret = new LinkedHashSet<String>();
+        long chars = 0;
         for(String s : list){
+            chars += s.length();
             if(!caseSensitive){ s = s.toLowerCase(); }
-            if(!ret.contains(s)){ ret.add(s); }
+            ret.add(s);
         }
-        return ret;
+        timer.Stop(2L * chars);
+        return new ArrayList<String>(ret);
     }
 
     /** Converts a collection of strings to a list of unique strings
@@ -241,6 +592,23 @@ class Stats{
         return UniqueStrings(list, caseSensitive);
     }
 
+    /** Converts a collection of matches to a list of unique strings, without making a String for every match
+     * @param  matches       The matches to be made unique
+     * @param  caseSensitive Should this search be case sensitive? If flase, the returned list will be in lower case
+     * @return               A unique list of strings, in the order they appear in the matches
+     */
+    public List<String> UniqueStrings(MatchList matches, boolean caseSensitive){
+        if(matches == null){ return null; }
+        Metrics.Timer timer = uniqueMetric.Start();
+        List<String> ret = new ArrayList<String>();
+        for(int match : matches.FirstOfEach(caseSensitive)){
+            String s = matches.Get(match);
+            ret.add(caseSensitive ? s : s.toLowerCase());
+        }
+        timer.Stop(2L * matches.CharCount());
+        return ret;
+    }
+
     /** Converts a collection of strings to a list of unique strings
      * @param  arr           An array containing strings to be made unique
      * @param  caseSensitive Should this search be case sensitive? If flase, the returned list will be in lower case
@@ -252,15 +620,92 @@ class Stats{
         return UniqueStrings(list, caseSensitive);
     }
 
+    /** Finds the most frequent tokens in the document, counted in one pass.
+     *  A token is a run of word characters, as used by the regex '\\b', within one of the document's words
+     *  Case insensitive counts fold US-ASCII letters only, as TokenCount and regex case insensitive matching do
+     * @param  k             The most tokens to return
+     * @param  caseSensitive Should this count be case sensitive? If false, the tokens will have their US-ASCII letters in lower case
+     * @return <Strong>Key</Strong> is the token, most frequent first, ties in the order they first appear
+     *         <li> <strong>Value</Strong> is the count of occurances of that token </li>
+     */
+    public LinkedHashMap<String, Integer> TopK(int k, boolean caseSensitive){
+        Metrics.Timer timer = topKMetric.Start();
+        IntList starts = new IntList();
+        IntList ends = new IntList();
+        for(int w = 0; w < wordCount; w++){
+            int i = wordIndex.Get(w);
+            int tokenStart = -1;
+            while(i < document.length() && !IsWhitespace(document.charAt(i))){
+                int cp = document.codePointAt(i);
+                if(IsWordChar(cp) && tokenStart < 0){ tokenStart = i; }
+                else if(!IsWordChar(cp) && tokenStart >= 0){
+                    starts.Add(tokenStart);
+                    ends.Add(i);
+                    tokenStart = -1;
+                }
+                i += Character.charCount(cp);
+            }
+            if(tokenStart >= 0){
+                starts.Add(tokenStart);
+                ends.Add(i);
+            }
+        }
+        LinkedHashMap<String, Integer> ret = new MatchList(document, starts.ToArray(), ends.ToArray()).TopK(k, caseSensitive);
+        timer.Stop(2L * document.length());
+        return ret;
+    }
+
+    /** Counts the word n-grams and character n-grams of the document in one pass, see NGrams
+     * @param  caseSensitive Should n-grams differing only by case be counted separately?
+     * @param  maxEntries    The most distinct n-grams of each length to hold, after which the least frequent are dropped
+     * @return               The n-gram counts
+     */
+    public NGrams GetNGrams(boolean caseSensitive, int maxEntries){
+        Metrics.Timer timer = nGramsMetric.Start();
+        NGrams ret = new NGrams(document, wordIndex, caseSensitive, maxEntries);
+        timer.Stop(2L * document.length());
+        return ret;
+    }
+
+    /** Gets a copy of the sketch of the document's tokens, which must have been enabled before Initialise, see SetSketch.
+     *  <p>The copy can be merged with the sketches of other documents, see Sketch.Merge</p>
+     * @return The approximate distinct token count, token counts and most frequent tokens
+     */
+    public Sketch GetSketch(){
+        if(sketch == null){ throw new Error("No sketch, call SetSketch(memoryBytes, caseSensitive) before Initialise()"); }
+        return sketch.Copy();
+    }
+
+    /** Finds the most frequently matched strings, counted in one pass over the matches
+     * @param  matches       The matches to count, see MatchesFromRegex
+     * @param  k             The most strings to return
+     * @param  caseSensitive Should this count be case sensitive? If false, the strings will have their US-ASCII letters in lower case
+     * @return <Strong>Key</Strong> is the matched string, most frequent first, ties in the order they were first matched
+     *         <li> <strong>Value</Strong> is the number of matches of that string </li>
+     */
+    public LinkedHashMap<String, Integer> TopK(MatchList matches, int k, boolean caseSensitive){
+        if(matches == null){ return null; }
+        return matches.TopK(k, caseSensitive);
+    }
+
     /** Gets the contents between the given line numbers
      * @param  startLineNumber The line number to start at (0 is the first line)
      * @param  endLineNumber   The line number to end at (finishes at the start of that line)
      * @return                 The string between the two provided points in the document
      */
     public String GetStringFromLine(int startLineNumber, int endLineNumber){
-        if(startLineNumber > endLineNumber || endLineNumber < 0 || startLineNumber < 0 || endLineNumber > lineCount){ return null; }
-        return TrimEnd(document.substring(lineIndex[startLineNumber], lineIndex[endLineNumber]));
+        CharSequence view = ViewFromLine(startLineNumber, endLineNumber);
+        return view == null ? null : view.toString();
+    }
 
+    /** Gets a view of the contents between the given line numbers, without copying them
+     * @param  startLineNumber The line number to start at (0 is the first line)
+     * @param  endLineNumber   The line number to end at (finishes at the start of that line, or at the end of the document if it is LineCount())
+     * @return                 The contents between the two provided points in the document, without trailing whitespace
+     */
+    public CharSequence ViewFromLine(int startLineNumber, int endLineNumber){
+        if(startLineNumber > endLineNumber || endLineNumber < 0 || startLineNumber < 0 || endLineNumber > lineCount){ return null; }
+        return new TextView(document, LineStart(startLineNumber), LineStart(endLineNumber)).TrimEnd();
     }
 
     /** Gets the contents between the given word numbers
@@ -269,8 +714,18 @@ class Stats{
      * @return                 The string between the two provided points in the document
      */
     public String GetStringFromWord(int startWordNumber, int endWordNumber){
+        CharSequence view = ViewFromWord(startWordNumber, endWordNumber);
+        return view == null ? null : view.toString();
+    }
+
+    /** Gets a view of the contents between the given word numbers, without copying them
+     * @param  startWordNumber The word number to start at (0 is the first word)
+     * @param  endWordNumber   The word number to end at (finishes at the start of that word, or at the end of the document if it is WordCount())
+     * @return                 The contents between the two provided points in the document, without trailing whitespace
+     */
+    public CharSequence ViewFromWord(int startWordNumber, int endWordNumber){
         if(startWordNumber > endWordNumber || endWordNumber < 0 || startWordNumber < 0 || endWordNumber > wordCount){ return null; }
-        return TrimEnd(document.substring(wordIndex[startWordNumber], wordIndex[endWordNumber]));
+        return new TextView(document, WordStart(startWordNumber), WordStart(endWordNumber)).TrimEnd();
     }
 
     /** Gets a substring from the document based on the start and end indexes
@@ -283,69 +738,426 @@ class Stats{
         return document.substring(startIndex, endIndex);
     }
 
+    /** Gets a view of part of the document based on the start and end indexes, without copying it
+     * @param  startIndex The index to start at (0 is the beginning of the document)
+     * @param  endIndex   The index to End at
+     * @return            The selected part of the document
+     */
+    public CharSequence ViewFromDocument(int startIndex, int endIndex){
+        if(startIndex < 0 || endIndex > document.length() ){throw new Error("Attempting to read beyond document bounds");}
+        return new TextView(document, startIndex, endIndex);
+    }
+
+    /** Gets the number of the line that an index in the document is on, such as the start of a match
+     * @param  index The index in the document
+     * @return       The line number, which can be passed to GetLineIndex or GetStringFromLine
+     */
+    public int LineOf(int index){
+        if(index < 0 || index >= document.length()){ throw new Error("Attempting to read beyond document bounds"); }
+        int found = lineIndex.BinarySearch(index);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /** Gets the number of the word that an index in the document is in, or the whitespace following it
+     * @param  index The index in the document
+     * @return       The word number, which can be passed to GetWordIndex or GetStringFromWord. -1 if the index is before the first word
+     */
+    public int WordOf(int index){
+        if(index < 0 || index >= document.length()){ throw new Error("Attempting to read beyond document bounds"); }
+        int found = wordIndex.BinarySearch(index);
+        return found >= 0 ? found : -found - 2;
+    }
+
     /** Gets the index in the document at the start of the given line number
      * @param  lineNumber The line number that you want to get the index of
      * @return            The index at the beginning of the given line number
      */
-    public int GetLineIndex(int lineNumber){ return lineIndex[lineNumber]; }
+    public int GetLineIndex(int lineNumber){ return lineIndex.Get(lineNumber); }
 
     /** Gets the index in the document at the start of the given word number
      * @param  wordNumber The word number that you want to get the index of
      * @return            The index at the beginning of the given word number
      */
-    public int GetWordIndex(int wordNumber){ return wordIndex[wordNumber]; }
+    public int GetWordIndex(int wordNumber){ return wordIndex.Get(wordNumber); }
+
+    /** Counts each of a list of strings inside another, as CountOcurranceString would.
+     *  <p>Literal strings, which is every string for a whole word search, are all counted together in one
+     *  pass by an Aho-Corasick automaton, unless they can be answered by the token index. Anything else is
+     *  counted as a regex one at a time</p>
+     * @return The count of each string in the list, in list order
+     */
+    private int[] CountAll(String in, List<String> list, boolean caseSensitive, boolean wholeWord){
+        int[] counts = new int[list.size()];
+        List<String> literals = new ArrayList<>();
+        IntList literalPositions = new IntList();
+        for(int i = 0; i < list.size(); i++){
+            String search = list.get(i);
+            boolean indexed = wholeWord && in == document && tokenIndex != null && TokenIndex.IsToken(search);
+            boolean literal = wholeWord ? !search.isEmpty() : AhoCorasick.IsLiteral(search);
+            if(!indexed && literal){
+                literals.add(search);
+                literalPositions.Add(i);
+            }
+            else{ counts[i] = CountOcurranceString(in, search, caseSensitive, wholeWord); }
+        }
+        if(literals.isEmpty()){ return counts; }
+        int[] literalCounts = new AhoCorasick(literals, caseSensitive).Count(in, wholeWord);
+        for(int i = 0; i < literalCounts.length; i++){ counts[literalPositions.Get(i)] = literalCounts[i]; }
+        return counts;
+    }
+
+    /** Copies the loaded state for a snapshot.
+     *  The document is shared, as it is only ever replaced. The offsets are shared, as Refresh only adds past the end
+     *  of those the snapshot holds. The token index and sketch are shared until Refresh next changes them, see Unshare */
+    private Stats Copy(){
+        Stats copy = new Stats();
+        copy.document = document;
+        copy.lineIndex = lineIndex.Share();
+        copy.wordIndex = wordIndex.Share();
+        copy.lineCount = lineCount;
+        copy.wordCount = wordCount;
+        copy.charCount = charCount;
+        copy.tokenIndex = tokenIndex;
+        copy.sketch = sketch;
+        copy.initialised = true;
+        indexesShared = true;
+        offsetsShared = true;
+        return copy;
+    }
+
+    /** Copies whatever a snapshot shares that a refresh is about to change
+     * @param overwrite Will the refresh overwrite offsets, as it reads the last line again?
+     */
+    private void Unshare(boolean overwrite){
+        if(indexesShared){
+            if(tokenIndex != null){ tokenIndex = tokenIndex.Copy(); }
+            if(sketch != null){ sketch = sketch.Copy(); }
+            indexesShared = false;
+        }
+        if(offsetsShared && overwrite){
+            lineIndex = lineIndex.Copy();
+            wordIndex = wordIndex.Copy();
+            offsetsShared = false;
+        }
+    }
+
+    /** Gets the token index, which must have been enabled before Initialise */
+    private TokenIndex GetTokenIndex(){
+        if(tokenIndex == null){ throw new Error("No token index, call SetTokenIndex(true) before Initialise()"); }
+        return tokenIndex;
+    }
+
+    /** Loads the state from the file's sidecar, if it has an up to date one.
+     *  <p>Only a sidecar written for a file of the same size and modification time is read. The file is then
+     *  read once, to check its hash and to decode it unless the sidecar holds the document. Nothing is changed
+     *  unless the sidecar is loaded</p>
+     * @param  size     The size of the file now
+     * @param  modified The modification time of the file now, in milliseconds
+     * @return          Whether the sidecar was loaded
+     */
+    private boolean LoadSidecar(Path path, long size, long modified) throws IOException{
+        Metrics.Timer timer = sidecarMetric.Start();
+        Sidecar sidecar = Sidecar.Read(Sidecar.PathFor(path), size, modified);
+        if(sidecar == null){
+            timer.Stop(0);
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        String decoded = Sidecar.ReadSource(path, crc, sidecar.Document() == null);
+        if(crc.getValue() != sidecar.Source().Hash()){
+            timer.Stop(size);
+            return false;
+        }
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){ Track(channel, path, size, modified); }
+        documentRewritten = sidecar.Document() != null;
+        document = documentRewritten ? sidecar.Document() : decoded;
+        lineIndex = new IntList(sidecar.LineIndex());
+        wordIndex = new IntList(sidecar.WordIndex());
+        lineCount = lineIndex.Size();
+        wordCount = wordIndex.Size();
+        charCount = sidecar.CharCount();
+        tokenIndex = buildTokenIndex ? sidecar.Tokens() : null;
+        boolean missingTokens = buildTokenIndex && tokenIndex == null;
+        BuildIndexes();
+        loadedFromSidecar = true;
+        initialised = true;
+        if(missingTokens){ WriteSidecar(path, sidecar.Source()); }
+        timer.Stop(size);
+        return true;
+    }
+
+    /** Writes the state to the file's sidecar. A sidecar that cannot be written is reported and skipped, as it is only a cache */
+    private void WriteSidecar(Path path, Sidecar.Source source){
+        try{
+            Sidecar.Write(Sidecar.PathFor(path), source, lineIndex.ToArray(), wordIndex.ToArray(), charCount,
+                          documentRewritten ? document : null, tokenIndex);
+        }
+        catch(IOException e){ System.err.println("Sidecar not written for " + path + ": " + e); }
+    }
+
+    /** Builds the optional indexes over the loaded document, those not already built as it was read in */
+    private void BuildIndexes(){
+        Metrics.Timer timer = indexesMetric.Start();
+        if(buildTokenIndex && tokenIndex == null){ tokenIndex = new TokenIndex(document, wordIndex); }
+        if(sketchBytes > 0 && sketch == null){
+            sketch = new Sketch(sketchBytes, sketchCaseSensitive);
+            sketch.Add(document, 0, document.length());
+        }
+        timer.Stop(2L * document.length());
+    }
+
+    /** Gets the index in the document at the start of a line, or the end of the document for the line after the last */
+    private int LineStart(int lineNumber){ return lineNumber == lineCount ? document.length() : lineIndex.Get(lineNumber); }
+
+    /** Gets the index in the document at the start of a word, or the end of the document for the word after the last */
+    private int WordStart(int wordNumber){ return wordNumber == wordCount ? document.length() : wordIndex.Get(wordNumber); }
+
+    /** Reads in part of the file as one chunk, or as several chunks in parallel
+     * @param start The byte offset to start at, which must be the start of a line
+     * @param end   The byte offset to end at, the size of the file
+     * @param hash  Should each chunk hash its bytes as they are decoded? See TextChunk.Hash
+     */
+    private TextChunk[] MapIn(FileChannel channel, long start, long end, boolean hash) throws IOException{
+        if(end >= Integer.MAX_VALUE){ throw new Error("File is too large to be held as a single document"); }
+        long[] bounds = SplitAtLines(channel, start, end);
+        if(bounds.length == 2){ return new TextChunk[]{ TextChunk.Decode(channel, start, end, sketch == null ? null : sketch.Empty(), hash) }; }
+        TextChunk[] chunks = new TextChunk[bounds.length - 1];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try{ pool.invoke(new DecodeTask(channel, bounds, chunks, sketch, hash, 0, chunks.length)); }
+        catch(UncheckedIOException e){ throw e.getCause(); }
+        finally{ pool.shutdown(); }
+        return chunks;
+    }
 
-    /** Trims only the end of a provided string */
-    private String TrimEnd(String s){
-        return s.replaceFirst("\\s++$", "");
+    /** Picks the byte offsets to split the file at for parallel reading, each just after a '\n'.
+     *  A '\n' byte is never part of a longer UTF-8 sequence, so every chunk decodes on its own
+     * @return The start of each chunk, followed by the end
+     */
+    private long[] SplitAtLines(FileChannel channel, long start, long size) throws IOException{
+        long chunks = Math.min((long) parallelism * CHUNKS_PER_THREAD, (size - start) / minChunkSize);
+        if(parallelism == 1 || chunks < 2){ return new long[]{ start, size }; }
+        long[] bounds = new long[(int) chunks + 1];
+        bounds[0] = start;
+        int found = 1;
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for(int k = 1; k < chunks; k++){
+            long position = Math.max(start + (size - start) * k / chunks, bounds[found - 1]);
+            long split = -1;
+            while(split < 0 && position < size){
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                for(int i = 0; i < read && split < 0; i++){
+                    if(buffer.get(i) == '\n'){ split = position + i + 1; }
+                }
+                position += Math.max(read, 0);
+            }
+            if(split < 0 || split >= size){ break; }
+            if(split > bounds[found - 1]){ bounds[found++] = split; }
+        }
+        bounds[found++] = size;
+        return Arrays.copyOf(bounds, found);
+    }
+
+    /** Decodes a range of chunks, splitting the range in half until there is only one */
+    private static final class DecodeTask extends RecursiveAction{
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final TextChunk[] chunks;
+        // each chunk is sketched into an empty copy of this, null when not sketching
+        private final Sketch sketch;
+        private final boolean hash;
+        private final int from;
+        private final int to;
+
+        DecodeTask(FileChannel channel, long[] bounds, TextChunk[] chunks, Sketch sketch, boolean hash, int from, int to){
+            this.channel = channel;
+            this.bounds = bounds;
+            this.chunks = chunks;
+            this.sketch = sketch;
+            this.hash = hash;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from > 1){
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeTask(channel, bounds, chunks, sketch, hash, from, middle), new DecodeTask(channel, bounds, chunks, sketch, hash, middle, to));
+                return;
+            }
+            try{ chunks[from] = TextChunk.Decode(channel, bounds[from], bounds[from + 1], sketch == null ? null : sketch.Empty(), hash); }
+            catch(IOException e){ throw new UncheckedIOException(e); }
+        }
+    }
+
+    /** Joins the chunks onto the end of the document, shifting each chunk's line and word offsets by where it starts.
+     *  <p>The offsets are added to in place, growing as IntList does, so a refresh costs the size of what it adds.
+     *  Only the document is copied, as it is a String</p>
+     * @param keep How much of the current document to keep, all of its lines and words must start before this
+     */
+    private void Append(TextChunk[] chunks, int keep){
+        Metrics.Timer timer = appendMetric.Start();
+        String text;
+        if(chunks.length == 1){ text = chunks[0].Text().toString(); }
+        else{
+            int length = 0;
+            for(TextChunk chunk : chunks){ length += chunk.Text().length(); }
+            StringBuilder joined = new StringBuilder(length);
+            for(TextChunk chunk : chunks){ joined.append(chunk.Text()); }
+            text = joined.toString();
+        }
+        int offset = keep;
+        for(TextChunk chunk : chunks){
+            if(lineIndex == null){
+                // the first chunk of a document needs no shifting, so its offsets are taken over
+                lineIndex = chunk.Lines();
+                wordIndex = chunk.Words();
+            }
+            else{
+                lineIndex.AddAll(chunk.Lines(), offset);
+                wordIndex.AddAll(chunk.Words(), offset);
+            }
+            offset += chunk.Text().length();
+            chunk.ReleaseText();
+        }
+        document = (keep == document.length() ? document : document.substring(0, keep)).concat(text);
+        lineCount = lineIndex.Size();
+        wordCount = wordIndex.Size();
+        for(TextChunk chunk : chunks){
+            charCount += chunk.CharCount();
+            documentRewritten |= chunk.IsRewritten();
+            if(sketch != null && chunk.TokenSketch() != null){ sketch.Merge(chunk.TokenSketch()); }
+        }
+        timer.Stop(2L * (document.length() - keep));
+    }
+
+    /** Takes the last line out of the counts and indexes, as it was read from after the last complete line of the file
+     *  and so is read again along with whatever has been added to it
+     * @return The length of the document without the line
+     */
+    private int DropLastLine(){
+        int lineStart = lineIndex.Get(lineCount - 1);
+        int firstWord = wordCount;
+        while(firstWord > 0 && wordIndex.Get(firstWord - 1) >= lineStart){ firstWord--; }
+        if(tokenIndex != null){ tokenIndex.RemoveWords(document, wordIndex, firstWord, wordCount); }
+        if(charFrequency != null){ charFrequency.Remove(document, lineStart, document.length()); }
+        if(sketch != null){ sketch.Remove(document, lineStart, document.length()); }
+        for(int i = lineStart; i < document.length(); i++){
+            if(!IsWhitespace(document.charAt(i))){ charCount--; }
+        }
+        lineCount--;
+        wordCount = firstWord;
+        lineIndex.Truncate(lineCount);
+        wordIndex.Truncate(wordCount);
+        return lineStart;
+    }
+
+    /** Records how much of the file has been read in, when it was modified, and where its last complete line ends */
+    private void Track(FileChannel channel, Path path, long size, long modified) throws IOException{
+        committedBytes = LastLineEnd(channel, path.equals(loadedPath) ? committedBytes : 0, size);
+        committedHash = PrefixHash(channel, committedBytes);
+        loadedBytes = size;
+        loadedModified = modified;
+        loadedPath = path;
+    }
+
+    /** Hashes part of a file from its start, to tell by Refresh whether it has been rewritten since it was read in.
+     *  <p>Only the first and last PREFIX_WINDOW bytes are hashed, so checking costs the same however large the file
+     *  grows. A rewrite that changes neither, leaving the size and modification time the same, is not seen</p>
+     * @param  end The byte offset to hash up to
+     * @return     The CRC32C of the bytes hashed
+     */
+    private static long PrefixHash(FileChannel channel, long end) throws IOException{
+        CRC32C crc = new CRC32C();
+        long head = Math.min(PREFIX_WINDOW, end);
+        ByteBuffer buffer = ByteBuffer.allocate((int) head);
+        for(long from : new long[]{ 0, Math.max(head, end - PREFIX_WINDOW) }){
+            buffer.clear().limit((int) Math.min(head, end - from));
+            while(buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) > 0){}
+            buffer.flip();
+            crc.update(buffer);
+        }
+        return crc.getValue();
+    }
+
+    /** Finds the byte offset just after the last line terminator in part of a file, searching backwards from the end.
+     *  A '\\r' at the very end is not counted, as it may be the first half of a "\\r\\n" still being written
+     * @param  start The byte offset to search back to, which must be the start of a line
+     * @param  end   The byte offset to search back from, the size of the file
+     * @return       The offset after the last line terminator, start if there is none
+     */
+    private static long LastLineEnd(FileChannel channel, long start, long end) throws IOException{
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long to = end;
+        while(to > start){
+            long from = Math.max(start, to - buffer.capacity());
+            buffer.clear().limit((int) (to - from));
+            while(buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) > 0){}
+            // next line, line separator and paragraph separator are several bytes, so the two bytes at the start of a block are checked with the next
+            long lowest = from == start ? from : from + 2;
+            for(long p = to - 1; p >= lowest; p--){
+                int i = (int) (p - from);
+                byte b = buffer.get(i);
+                boolean terminator = b == '\n' || (b == '\r' && p != end - 1)
+                    || (b == (byte) 0x85 && i >= 1 && buffer.get(i - 1) == (byte) 0xC2)
+                    || ((b == (byte) 0xA8 || b == (byte) 0xA9) && i >= 2 && buffer.get(i - 1) == (byte) 0x80 && buffer.get(i - 2) == (byte) 0xE2);
+                if(terminator){ return p + 1; }
+            }
+            to = lowest;
+        }
+        return start;
     }
 
     /** Scans in the file and populates all fields appropriately */
-    private void ScanIn(Scanner scan, ArrayList<Integer> lineInd, ArrayList<Integer> wordInd){
+    private void ScanIn(Scanner scan, IntList lineInd, IntList wordInd){
+        Metrics.Timer timer = scanInMetric.Start();
         String line;
-        lineInd.add(0);
+        lineInd.Add(0);
         while(scan.hasNextLine()){
             line = scan.nextLine();
-            int lastLineIndex = lineInd.get(lineInd.size()-1);
-            ProcessLine(line, lineInd, lastLineIndex);
-            ProcessWords(line, wordInd, lastLineIndex);
+            ProcessLine(line, lineInd, lineInd.Last());
+        }
+        // the words of every line are scanned together and timed as one call, as timing each line would cost more than scanning it
+        Metrics.Timer wordsTimer = processWordsMetric.Start();
+        int words = wordInd.Size();
+        for(int l = 0; l < lineCount; l++){
+            charCount += TextChunk.ProcessWords(document, lineInd.Get(l), lineInd.Get(l + 1) - 1, wordInd);
         }
-        lineInd.remove(lineInd.size()-1);
+        wordCount += wordInd.Size() - words;
+        wordsTimer.Stop(2L * (document.length() - lineCount));
+        lineInd.RemoveLast();
+        timer.Stop(2L * document.length());
     }
 
     /** Scans in a line of the file, populates lineIndex and lineCount fields */
-    private void ProcessLine(String line, ArrayList<Integer> lineInd, int lastLineIndex){
-        lineInd.add(1 + line.length() + lastLineIndex);
+    private void ProcessLine(String line, IntList lineInd, int lastLineIndex){
+        Metrics.Timer timer = processLineMetric.Start();
+        lineInd.Add(1 + line.length() + lastLineIndex);
         lineCount++;
         document = document + line + '\n';
+        timer.Stop(2L * line.length());
     }
 
-    /** Scans in each word in a line, populates wordIndex, wordCount and charCount */
-    private void ProcessWords(String line, ArrayList<Integer> wordInd, int thisLineIndex){
-        String[] words;
-        int linelen = line.length();
-        line = line.replaceAll("^\\s+", "");
-        words = line.split("\\s");
-        for(String word : words){
-            if(word.trim().length() == 0){ continue; }
-            wordCount++;
-            charCount += word.length();
-            int thisWordIndex = linelen - line.replaceAll("^\\s+", "").length();
-            line = line.substring(word.length()).replaceAll("^\\s+", "");
-            wordInd.add(thisLineIndex + thisWordIndex);
-        }
+    /** Whether the character is whitespace, using the same characters as the regex '\\s' */
+    static boolean IsWhitespace(char c){
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
-    /** Converts an ArrayList of Integers to primitive int array. Memory optimisation */
-    private int[] ConvertToArray( ArrayList<Integer> al){
-        if(al == null){throw new Error("Cannot convert from null");}
-        int[] ar = new int[al.size()];
-        int i = 0;
-        for(Integer in : al){
-            ar[i] = in.intValue();
-            i++;
-        }
-        return ar;
+    /** Whether the character is part of a word, using the same characters as the regex '\\b' */
+    static boolean IsWordChar(int codePoint){
+        return codePoint == '_' || Character.isLetterOrDigit(codePoint);
+    }
+
+    /** Whether the character ends a line, using the same characters as Scanner.nextLine() and the regex '.' */
+    static boolean IsLineTerminator(char c){
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+    }
+
+    /** Folds US-ASCII letters to lower case, the same folding as regex case insensitive matching */
+    static char Fold(char c){
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
     }
 
     ////////////////////////////   TESTING    //////////////////////////////////
@@ -370,10 +1182,10 @@ class Stats{
         claim(String.format("%.1f",AvgWordLen()).equals("3.6"));
 
         //////////////////////////////  Indecies  //////////////////////////////
-        claim(LineCount() == lineIndex.length);
-        claim(lineCount == lineIndex.length);
-        claim(WordCount() == wordIndex.length);
-        claim(wordCount == wordIndex.length);
+        claim(LineCount() == lineIndex.Size());
+        claim(lineCount == lineIndex.Size());
+        claim(WordCount() == wordIndex.Size());
+        claim(wordCount == wordIndex.Size());
         //GetLineIndex
         claim(GetLineIndex(0) == 0);
         claim(GetLineIndex(1) == 10);
@@ -405,6 +1217,32 @@ class Stats{
         claim(GetStringFromLine(1,6) == null);
 
         claim(GetStringFromDocument(0,AllCharCount()).equals(document));
+        // to the end of the document
+        claim("ACaaaaaa".equals(GetStringFromLine(4, 5)) && "ACaaaaaa".equals(GetStringFromWord(7, 8)));
+        claim(GetStringFromLine(5, 5).isEmpty() && GetStringFromWord(0, 8).equals(document.trim()));
+        //Views
+        CharSequence view = ViewFromWord(3, 7);
+        claim(view instanceof TextView && view.length() == 18 && view.charAt(3) == 'h');
+        claim("it has three lines".contentEquals(view) && view.subSequence(7, 12).toString().equals("three"));
+        claim(((TextView) view).Start() == 13 && ((TextView) ViewFromLine(2, 4)).Start() == 32 && ViewFromLine(2, 4).length() == 0);
+        claim(ViewFromLine(1, 6) == null && ViewFromDocument(10, 12).toString().equals("  "));
+        try{
+            view.charAt(18);
+            claim(false);
+        }
+        catch(IndexOutOfBoundsException e){}
+        //LineOf and WordOf
+        claim(LineOf(0) == 0 && LineOf(9) == 0 && LineOf(10) == 1 && LineOf(32) == 2 && LineOf(AllCharCount() - 1) == 4);
+        claim(WordOf(0) == 0 && WordOf(2) == 0 && WordOf(3) == 1 && WordOf(12) == 2 && WordOf(13) == 3 && WordOf(AllCharCount() - 1) == 7);
+        for(Map.Entry<Integer, String> e : MapFromRegex(document, "\\w+").entrySet()){
+            claim(GetStringFromWord(WordOf(e.getKey()), WordOf(e.getKey()) + 1).equals(e.getValue()));
+            claim(GetStringFromLine(LineOf(e.getKey()), LineOf(e.getKey()) + 1).contains(e.getValue()));
+        }
+        try{
+            LineOf(AllCharCount());
+            claim(false);
+        }
+        catch(Error e){ claim(!e.getMessage().equals("Test failure")); }
 
         //////////////////////  CountOccuranceString  //////////////////////////
         String str = "a  bb ccc\n   it has three lines\n\n\nACaaaaaa";
@@ -433,6 +1271,16 @@ class Stats{
         claim(CountOcurranceString(str,"three",false,true) == 1);
         claim(CountOcurranceString(str,"lines",false,true) == 1);
         claim(CountOcurranceString(str,"ACaaaaaa",false,true) == 1);
+        //every occurrence is counted, not every line holding one
+        claim(CountOcurranceString("the cat the hat\nthe end", "the", true, true) == 3);
+        claim(CountOcurranceString("a a a a", "a a", true, true) == 2);
+        claim(CountOcurranceString("he-he then he", "he", true, true) == 3);
+        claim(CountOcurranceString("caf\u00e9 caf\u00e9s caf\u00e9", "caf\u00e9", true, true) == 2);
+        //whole word searches are literal
+        claim(CountOcurranceString("a.b axb a.b", "a.b", true, true) == 2);
+        claim(CountOcurranceString("f(x) + f(x)x", "f(x)", true, true) == 2);
+        claim(CountOcurranceString("x.y (the)", "(the)", true, true) == 1);
+        claim(CountOcurranceString("a b", "", true, true) == 0);
 
         //////////////////////////  MapFromRegex  //////////////////////////////
         // words beginning t
@@ -461,6 +1309,42 @@ class Stats{
             claim(en.getValue() == 1);
         }
 
+        //////////////////////////  CharFrequency  /////////////////////////////
+        claim(GetCharactersUsed(true).equals(Arrays.asList("a", "b", "c", "i", "t", "h", "s", "r", "e", "l", "n", "A", "C")));
+        claim(GetCharactersUsed(false).equals(Arrays.asList("a", "b", "c", "i", "t", "h", "s", "r", "e", "l", "n")));
+        claim("a".equals(MostCommonCharacter(false)) && "a".equals(MostCommonCharacter(true)));
+        claim(GetCharFrequency().Count('a') == 8 && GetCharFrequency().Count('a', false) == 9);
+        claim(GetCharFrequency().Count('C', false) == 4 && GetCharFrequency().Count(' ') == 0);
+        // surrogate pairs are one character, folding is not limited to US-ASCII
+        CharFrequency wide = new CharFrequency("\uD83D\uDE00x\uD83D\uDE00 \u00C9\u00E9\u00C9 Xy");
+        claim(wide.Size() == 6 && wide.Count(0x1F600) == 2 && wide.Count(0xD83D) == 0);
+        claim(wide.CharactersUsed(false).equals(Arrays.asList("\uD83D\uDE00", "x", "\u00e9", "y")));
+        claim("\u00e9".equals(wide.MostCommon(false)) && "\uD83D\uDE00".equals(wide.MostCommon(true)));
+        claim(wide.Count('x', false) == 2 && wide.Count('X', true) == 1);
+        claim(new CharFrequency("  ").MostCommon(false) == null);
+        CharFrequency sum = new CharFrequency("ab");
+        sum.Add(new CharFrequency("bcB"));
+        claim(sum.CharactersUsed(true).equals(Arrays.asList("a", "b", "c", "B")) && sum.Count('b') == 2);
+
+        //////////////////////////  MatchesFromRegex  //////////////////////////
+        // the columnar matches hold the same matches as the map
+        for(String regex : new String[]{ "\\w+", ".", "..", "\\w{2}", "(?m)^.*$", "t\\w+" }){
+            MatchList ml = MatchesFromRegex(document, regex);
+            claim(ml.ToMap().equals(MapFromRegex(document, regex)));
+            claim(ml.Strings().equals(new ArrayList<String>(MapFromRegex(document, regex).values())));
+            for(boolean cs : new boolean[]{ true, false }){
+                claim(UniqueStrings(ml, cs).equals(UniqueStrings(MapFromRegex(document, regex), cs)));
+                claim(StringsCount(document, ml, cs, true).equals(StringsCount(document, MapFromRegex(document, regex), cs, true)));
+            }
+        }
+        claim(MatchesFromRegex(document, "zzz").Size() == 0);
+        claim(MapFromRegex(document, "zzz") == null);
+        claim(UniqueStrings(MatchesFromRegex("a A b a B", "\\w"), false).equals(Arrays.asList("a", "b")));
+        claim(UniqueStrings(MatchesFromRegex("a A b a B", "\\w"), true).equals(Arrays.asList("a", "A", "b", "B")));
+        MatchList words = MatchesFromRegex(document, "\\w+");
+        claim(words.Start(1) == 3 && words.End(1) == 5 && words.Length(1) == 2 && words.Get(1).equals("bb"));
+        claim("bb".contentEquals(words.View(1)) && LineOf(words.Start(3)) == 1);
+
         //////////////////////////  UniqueStrings  /////////////////////////////
         String[] strArr = {"a", "b", "aa", "bb", "Aa", "bB", "a", "b" };
         List<String> strList = new ArrayList<String>(Arrays.asList(strArr));
@@ -469,6 +1353,44 @@ class Stats{
         claim(UniqueStrings(strList, true).size() == 6);
         claim(UniqueStrings(strList, false).size() == 4);
 
+        claim(UniqueStrings(strList, false).equals(Arrays.asList("a", "b", "aa", "bb")));
+        claim(UniqueStrings(strList, true).equals(Arrays.asList("a", "b", "aa", "bb", "Aa", "bB")));
+
+        //////////////////////////////  TopK  //////////////////////////////////
+        claim(TopK(2, true).equals(Map.of("a", 1, "bb", 1)));
+        claim(new ArrayList<>(TopK(3, false).keySet()).equals(Arrays.asList("a", "bb", "ccc")));
+        claim(TopK(0, true).isEmpty() && TopK(100, true).size() == 8);
+        LinkedHashMap<String, Integer> top = TopK(MatchesFromRegex("b a B c a b A b", "\\w"), 2, false);
+        claim(top.toString().equals("{b=4, a=3}"));
+        claim(TopK(MatchesFromRegex("b a B c a b A b", "\\w"), 10, true).toString().equals("{b=3, a=2, B=1, c=1, A=1}"));
+        claim(TopK(MatchesFromRegex("x y", "z"), 3, true).isEmpty());
+        // case insensitive counts fold only US-ASCII letters, the same as TokenCount and regex matching
+        Stats accented = new Stats();
+        accented.SetTokenIndex(true);
+        accented.Initialise(TempFile("\u00c9t\u00e9 \u00e9t\u00e9 \u00c9T\u00e9 \u00e9T\u00e9"));
+        LinkedHashMap<String, Integer> accentedTop = accented.TopK(10, false);
+        claim(accentedTop.toString().equals("{\u00c9t\u00e9=2, \u00e9t\u00e9=2}"));
+        for(Map.Entry<String, Integer> e : accentedTop.entrySet()){
+            claim(accented.TokenCount(e.getKey(), false) == e.getValue());
+            claim(accented.CountOcurranceString(accented.GetDocument(), e.getKey(), false, true) == e.getValue());
+        }
+        claim(accented.GetNGrams(false, 100).Top(10, 1).equals(accentedTop));
+        claim(accented.UniqueStrings(accented.MatchesFromRegex(accented.GetDocument(), "\\S+"), false).equals(Arrays.asList("\u00e9t\u00e9")));
+
+        /////////////////////////////  NGrams  ///////////////////////////////////
+        NGrams grams = GetNGrams(false, 1000);
+        claim(grams.DistinctTokens() == 8 && grams.Token(grams.TokenId("ACAAAAAA")).equals("acaaaaaa") && grams.TokenId("aa") < 0);
+        claim(grams.Count("BB", "ccc") == 1 && grams.Count("ccc", "it", "HAS") == 1 && grams.Count("a", "ccc") == 0 && grams.Count("nope") == 0);
+        claim(grams.Count("lines", "acaaaaaa") == 1 && grams.Distinct(3) == 6);
+        claim(grams.CharCount("aa") == 5 && grams.CharCount("A") == 9 && grams.CharCount("ACAA") == 1 && grams.CharCount("zz") == 0);
+        claim(grams.Top(1, 2).toString().equals("{a bb=1}") && grams.Top(3, 1).toString().equals("{a=1, bb=1, ccc=1}"));
+        claim(grams.TopChars(2, 2).toString().equals("{aa=5, cc=2}") && grams.MaxUndercount(1) == 0);
+        NGrams exactCase = GetNGrams(true, 1000);
+        claim(exactCase.CharCount("A") == 1 && exactCase.CharCount("a") == 8 && exactCase.TokenId("acaaaaaa") < 0);
+        // tables over their size drop their least frequent n-grams
+        NGrams small = GetNGrams(true, 4);
+        claim(small.Distinct(1) <= 4 && small.MaxUndercount(1) > 0 && small.Count("ccc") <= 1);
+
         //most common letter
         claim("a".equals(MostCommonString(UniqueStrings(MapFromRegex(document,"."), true),false,false)));
         //most common 2 letter sequence
@@ -492,6 +1414,674 @@ class Stats{
         claim(lineIndex == null);
         claim(wordIndex == null);
         claim(!initialised);
+
+        ///////////////////////////  Loaders  ///////////////////////////////////
+        // the mapped loader must give exactly the same results as the Scanner loader
+        claim(LoadsSameAsScanner("test.txt"));
+        String[] endings = { "", "\n", "one\ntwo", "one\r\ntwo\r\n", "one\rtwo\r", "\r\n\r\n", "  lead\ttab \n\nlast  " };
+        for(String content : endings){ claim(LoadsSameAsScanner(TempFile(content))); }
+        // unicode line separators, compared directly as Scanner decodes with the platform charset
+        Stats unicode = new Stats(TempFile("a\u2028b\u2029c\u0085d"));
+        claim(unicode.GetDocument().equals("a\nb\nc\nd\n"));
+        claim(unicode.LineCount() == 4 && unicode.WordCount() == 4);
+        // words are split on every whitespace character matched by '\\s'
+        Stats spaced = new Stats(TempFile(" a\tbb\u000Bc \fd \nee"));
+        claim(spaced.WordCount() == 5 && spaced.CharCount() == 7);
+        claim(spaced.GetWordIndex(0) == 1 && spaced.GetWordIndex(1) == 3 && spaced.GetWordIndex(2) == 6);
+        claim(spaced.GetWordIndex(3) == 9 && spaced.GetWordIndex(4) == 12);
+        Initialise("test.txt");
+        claim(initialised);
+        Reset();
+
+        ///////////////////////////  Byte storage  //////////////////////////////
+        {
+            String mixed = TempFile("a\r\nb\rc\u2028d\u0085e\u2029 f\n\n  \tg  h\u000Bi\fj caf\u00e9 \uD83D\uDE00x\r\n\r\n  end  ");
+            for(String file : new String[]{ "test.txt", mixed, TempFile(""), TempFile("\n"), TempFile("   \n x") }){
+                for(boolean onHeap : new boolean[]{ true, false }){
+                    claim(BytesSameAsStats(file, onHeap, 1, 1));
+                    claim(BytesSameAsStats(file, onHeap, 3, 5));
+                }
+            }
+            claim(BytesSameAsStats("pride-and-prej.txt", false, ByteDocument.LINE_STRIDE, ByteDocument.WORD_STRIDE));
+            ByteDocument bytes;
+            try{ bytes = new ByteDocument(mixed, false); }
+            catch(IOException e){ throw new Error(e); }
+            // offsets are in bytes of the file, where "\r\n" is still two bytes
+            claim(bytes.GetLineIndex(1) == 3 && bytes.LineOf(2) == 0 && bytes.LineOf(3) == 1 && bytes.WordOf(1) == 0);
+            claim(bytes.ByteCount() == new File(mixed).length() && bytes.GetWordIndex(9) == 30);
+            claim(bytes.GetStringFromBytes(0, bytes.GetLineIndex(3)).equals("a\nb\nc\n") && bytes.GetStringFromLine(7, 7).isEmpty());
+            claim(bytes.GetStringFromLine(-1, 2) == null && bytes.GetStringFromWord(3, bytes.WordCount() + 1) == null);
+        }
+
+        ///////////////////////  Parallel Initialise  ////////////////////////////
+        // merged chunks must give exactly the same indices as reading on one thread
+        for(int threads : new int[]{ 2, 3, 8 }){
+            claim(LoadsSameInParallel("test.txt", threads, 1));
+            claim(LoadsSameInParallel("pride-and-prej.txt", threads, 1 << 10));
+            claim(LoadsSameInParallel("pride-and-prej.txt", threads, 1 << 16));
+            for(String content : endings){ claim(LoadsSameInParallel(TempFile(content), threads, 1)); }
+            claim(LoadsSameInParallel(TempFile("a\r\n\r\nb\u2028c\r\rd\n\u00e9t\u00e9 \uD83D\uDE00\n\n"), threads, 1));
+        }
+
+        /////////////////////////  Pattern cache  ///////////////////////////////
+        long hits = patternCache.Hits();
+        long misses = patternCache.Misses();
+        CountOcurranceString("aaAAA", "a", false, false);
+        CountOcurranceString("aaAAA", "A", false, false);
+        claim(patternCache.Hits() + patternCache.Misses() == hits + misses + 2);
+        claim(patternCache.Misses() <= misses + 1);
+        MapFromRegex(document, "\\w+");
+        claim(patternCache.Hits() > hits);
+        PatternCache lru = new PatternCache(2);
+        claim(lru.Get("a", 0) == lru.Get("a", 0));
+        claim(lru.Get("a", 0) != lru.Get("a", Pattern.CASE_INSENSITIVE));
+        lru.Get("b", 0);
+        claim(lru.Size() == 2 && lru.Hits() == 2 && lru.Misses() == 3);
+        lru.Get("a", Pattern.CASE_INSENSITIVE);
+        lru.Get("a", 0);
+        claim(lru.Misses() == 4);
+        lru.SetMaxSize(1);
+        claim(lru.Size() == 1);
+        lru.Get("a", 0);
+        claim(lru.Misses() == 4);
+        lru.SetMaxSize(0);
+        claim(lru.Size() == 0 && lru.Get("a", 0) != null && lru.Size() == 0);
+
+        /////////////////////////  Aho-Corasick  ////////////////////////////////
+        // counting a list in one pass must match counting each string on its own
+        String text = "aaaa the cat The the\nthe_end, he\r\nthen he-he\n\nACaaaaaa ccc\n   it has";
+        String[] searches = { "a", "aa", "aaa", "A", "the", "The", "he", "then", "he-he", "e", "ccc\n   it", "\n\n",
+                              "t.e", "ca", "missing", "the", "ha" };
+        for(boolean cs : new boolean[]{ true, false }){
+            for(boolean ww : new boolean[]{ true, false }){
+                TreeMap<String, Integer> counted = StringsCount(text, searches, cs, ww);
+                for(String search : searches){ claim(counted.get(search) == CountOcurranceString(text, search, cs, ww)); }
+            }
+        }
+        claim(StringsCount(text, new String[0], true, true).isEmpty());
+        claim(AhoCorasick.IsLiteral("it has") && !AhoCorasick.IsLiteral("t.e") && !AhoCorasick.IsLiteral(""));
+
+        //////////////////////////  Token index  ////////////////////////////////
+        // whole word counts from the index must match the regex search over the document
+        Stats indexed = new Stats();
+        indexed.SetTokenIndex(true);
+        indexed.Initialise(TempFile("The cat, the hat.\nthe_end THE end\n\nx.y a-b-a (the)\ncaf\u00e9 Caf\u00e9"));
+        Stats plain = new Stats(TempFile(indexed.GetDocument()));
+        String[] tokens = { "the", "The", "THE", "cat", "hat", "the_end", "end", "x", "y", "a", "b", "caf\u00e9", "Caf\u00e9", "missing" };
+        for(String t : tokens){
+            for(boolean cs : new boolean[]{ true, false }){
+                claim(indexed.CountOcurranceString(indexed.GetDocument(), t, cs, true)
+                      == plain.CountOcurranceString(plain.GetDocument(), t, cs, true));
+            }
+        }
+        claim(indexed.TokenCount("the", false) == 4);
+        claim(indexed.CountOcurranceString(indexed.GetDocument(), "the", false, true) == 4);
+        claim(indexed.TokenCount("the", true) == 2);
+        claim(indexed.TokenCount("a", true) == 2);
+        claim(Arrays.equals(indexed.GetTokenWords("a", true), new int[]{ 8, 8 }));
+        claim(Arrays.equals(indexed.GetTokenWords("end", false), new int[]{ 6 }));
+        claim(indexed.GetTokenWords("missing", true) == null);
+        // and on the bundled novel, for every distinct word
+        Stats novel = new Stats();
+        novel.SetTokenIndex(true);
+        novel.Initialise("pride-and-prej.txt");
+        Stats novelPlain = new Stats("pride-and-prej.txt");
+        List<String> novelWords = novelPlain.UniqueStrings(novelPlain.MapFromRegex(novelPlain.GetDocument(), "\\w+"), true);
+        for(Map.Entry<String, Integer> e : novel.TopK(20, false).entrySet()){ claim(novel.TokenCount(e.getKey(), false) == e.getValue()); }
+        for(int i = 0; i < novelWords.size(); i += 200){
+            String w = novelWords.get(i);
+            claim(novel.CountOcurranceString(novel.GetDocument(), w, false, true)
+                  == novelPlain.CountOcurranceString(novelPlain.GetDocument(), w, false, true));
+        }
+
+        ////////////////////////////  Sidecar  //////////////////////////////////
+        for(String content : new String[]{ "a  bb ccc\n   it has three lines\n\n\nACaaaaaa\n", "one\r\ntwo three\rfour", "", "caf\u00e9 na\u00efve\n" }){
+            String file = TempFile(content);
+            java.nio.file.Path sidecarPath = Sidecar.PathFor(java.nio.file.Paths.get(file));
+            sidecarPath.toFile().deleteOnExit();
+            Stats fresh = new Stats(file);
+            Stats first = WithSidecar(file, false);
+            claim(!first.loadedFromSidecar && sidecarPath.toFile().exists());
+            Stats second = WithSidecar(file, false);
+            claim(second.loadedFromSidecar && SameState(second, fresh) && second.IsInitialised());
+            // a token index missing from the sidecar is built, and then stored
+            Stats builtTokens = WithSidecar(file, true);
+            claim(builtTokens.loadedFromSidecar && builtTokens.tokenIndex != null);
+            Stats storedTokens = WithSidecar(file, true);
+            claim(storedTokens.loadedFromSidecar && SameState(storedTokens, fresh));
+            for(String t : new String[]{ "a", "bb", "A", "ACaaaaaa", "two", "caf\u00e9" }){
+                claim(storedTokens.TokenCount(t, false) == builtTokens.TokenCount(t, false));
+                claim(Arrays.equals(storedTokens.GetTokenWords(t, true), builtTokens.GetTokenWords(t, true)));
+            }
+            // a changed source makes the sidecar stale
+            try{ java.nio.file.Files.write(java.nio.file.Paths.get(file), (content + "more words\n").getBytes(StandardCharsets.UTF_8)); }
+            catch(IOException e){ throw new Error(e); }
+            Stats stale = WithSidecar(file, false);
+            claim(!stale.loadedFromSidecar && SameState(stale, new Stats(file)));
+            claim(WithSidecar(file, false).loadedFromSidecar);
+            // a corrupt sidecar is rebuilt
+            try(java.io.RandomAccessFile raf = new java.io.RandomAccessFile(sidecarPath.toFile(), "rw")){
+                raf.seek(raf.length() - 12);
+                int b = raf.read();
+                raf.seek(raf.length() - 12);
+                raf.write(b ^ 0x40);
+            }
+            catch(IOException e){ throw new Error(e); }
+            Stats corrupt = WithSidecar(file, false);
+            claim(!corrupt.loadedFromSidecar && SameState(corrupt, new Stats(file)));
+            claim(WithSidecar(file, false).loadedFromSidecar);
+        }
+        {
+            // the CRC32C of a file is built from the CRC32C of its chunks
+            byte[] bytes = "one\ntwo three\nfour five six\n".getBytes(StandardCharsets.UTF_8);
+            CRC32C whole = new CRC32C();
+            whole.update(bytes);
+            for(int split = 0; split <= bytes.length; split++){
+                CRC32C first = new CRC32C();
+                CRC32C second = new CRC32C();
+                first.update(bytes, 0, split);
+                second.update(bytes, split, bytes.length - split);
+                claim(Sidecar.Combine(first.getValue(), second.getValue(), bytes.length - split) == whole.getValue());
+            }
+            // a sidecar written by a parallel read is used by a sequential one
+            String file = TempFile(new String(bytes, StandardCharsets.UTF_8).repeat(1000));
+            java.nio.file.Path source = java.nio.file.Paths.get(file);
+            Sidecar.PathFor(source).toFile().deleteOnExit();
+            Stats parallel = new Stats();
+            parallel.SetSidecar(true);
+            parallel.SetParallelism(4);
+            parallel.minChunkSize = 1 << 12;
+            parallel.Initialise(file);
+            claim(!parallel.loadedFromSidecar && WithSidecar(file, false).loadedFromSidecar);
+            // content changed without changing the size or modification time is caught by the hash
+            try{
+                java.nio.file.attribute.FileTime modified = java.nio.file.Files.getLastModifiedTime(source);
+                java.nio.file.Files.write(source, new String(bytes, StandardCharsets.UTF_8).repeat(1000).replace("one", "ONE").getBytes(StandardCharsets.UTF_8));
+                java.nio.file.Files.setLastModifiedTime(source, modified);
+            }
+            catch(IOException e){ throw new Error(e); }
+            Stats rewritten = WithSidecar(file, true);
+            claim(!rewritten.loadedFromSidecar && rewritten.TokenCount("ONE", true) == 1000 && SameState(rewritten, new Stats(file)));
+        }
+
+        ////////////////////////////  NGrams  ///////////////////////////////////
+        {
+            Stats prose = new Stats("pride-and-prej.txt");
+            String proseText = prose.GetDocument();
+            NGrams novelGrams = prose.GetNGrams(false, 1 << 20);
+            claim(novelGrams.Top(50, 1).equals(prose.TopK(50, false)));
+            for(Map.Entry<String, Integer> e : novelGrams.TopChars(10, 3).entrySet()){
+                claim(e.getValue() == prose.MatchesFromRegex(proseText, "(?i)(?=\\Q" + e.getKey() + "\\E)").Size());
+            }
+            for(Map.Entry<String, Integer> e : novelGrams.Top(10, 2).entrySet()){
+                String[] pair = e.getKey().split(" ");
+                claim(e.getValue() == prose.MatchesFromRegex(proseText, "(?i)\\b" + pair[0] + "\\W+" + pair[1] + "\\b").Size());
+            }
+            claim(novelGrams.MaxUndercount(3) == 0 && novelGrams.Count("I", "do", "not") > 0);
+            // with little memory the most common n-novelGrams are still found, their counts low by no more than the bound
+            NGrams bounded = prose.GetNGrams(false, 2000);
+            claim(bounded.Distinct(2) <= 2000 && bounded.MaxUndercount(2) > 0);
+            LinkedHashMap<String, Integer> exactTop = novelGrams.Top(5, 2);
+            LinkedHashMap<String, Integer> boundedTop = bounded.Top(5, 2);
+            claim(boundedTop.keySet().equals(exactTop.keySet()));
+            for(Map.Entry<String, Integer> e : boundedTop.entrySet()){
+                int exact = exactTop.get(e.getKey());
+                claim(e.getValue() <= exact && e.getValue() >= exact - bounded.MaxUndercount(2));
+            }
+        }
+
+        ////////////////////////////  Refresh  //////////////////////////////////
+        {
+            String file = TempFile("one two\nthree");
+            Stats growing = new Stats();
+            growing.SetTokenIndex(true);
+            growing.Initialise(file);
+            growing.GetCharFrequency();
+            claim(growing.Refresh() == 0);
+            // the unfinished last line is read again with what is added to it
+            AppendTo(file, " four\nfive\r");
+            claim(RefreshesSame(growing, file, "three", "four", "five", "one"));
+            claim(growing.LineCount() == 3 && growing.WordCount() == 5);
+            // a "\r\n" split between refreshes is still one line ending
+            AppendTo(file, "\nSix six_6 Five");
+            claim(RefreshesSame(growing, file, "five", "Five", "six", "six_6"));
+            claim(growing.LineCount() == 4 && growing.TokenCount("five", false) == 2);
+            // a character split between refreshes, and the longer line terminators
+            byte[] cafe = "\ncaf\u00e9\u2028\u00c9t\u00e9\u0085".getBytes(StandardCharsets.UTF_8);
+            AppendTo(file, Arrays.copyOf(cafe, cafe.length - 8));
+            claim(RefreshesSame(growing, file, "caf", "caf\u00e9"));
+            AppendTo(file, Arrays.copyOfRange(cafe, cafe.length - 8, cafe.length));
+            claim(RefreshesSame(growing, file, "caf\u00e9", "\u00c9t\u00e9"));
+            AppendTo(file, "\n\n  \tend");
+            claim(RefreshesSame(growing, file, "end", "caf\u00e9"));
+            claim(growing.Refresh() == 0);
+            // a file that shrinks is read in again
+            try{ java.nio.file.Files.write(java.nio.file.Paths.get(file), "short\n".getBytes(StandardCharsets.UTF_8)); }
+            catch(IOException e){ throw new Error(e); }
+            claim(RefreshesSame(growing, file, "short", "end"));
+            claim(growing.LineCount() == 1);
+            // a rewrite of the same size is seen by its modification time, and read in again as the start has changed
+            Rewrite(file, "sh0rt\n");
+            claim(RefreshesSame(growing, file, "short", "sh0rt") && growing.TokenCount("sh0rt", true) == 1);
+            // as is a file cut short and grown past where it was, rather than being appended to
+            Rewrite(file, "once\nmore than before\n");
+            claim(RefreshesSame(growing, file, "sh0rt", "once", "before") && growing.LineCount() == 2);
+            // an unfinished last line rewritten in place is read again, the lines before it are kept
+            AppendTo(file, "tail");
+            claim(RefreshesSame(growing, file, "tail"));
+            Rewrite(file, "once\nmore than before\nTAIL");
+            claim(RefreshesSame(growing, file, "tail", "TAIL") && growing.TokenCount("tail", true) == 0);
+            // a file only touched is not read, beyond a last line that was unfinished
+            Rewrite(file, "once\nmore than before\nTAIL\n");
+            claim(growing.Refresh() == 5);
+            Rewrite(file, "once\nmore than before\nTAIL\n");
+            claim(growing.Refresh() == 0 && growing.LineCount() == 3);
+            // a file that starts empty
+            String empty = TempFile("");
+            Stats fromEmpty = new Stats();
+            fromEmpty.SetTokenIndex(true);
+            fromEmpty.Initialise(empty);
+            AppendTo(empty, "first words");
+            claim(RefreshesSame(fromEmpty, empty, "first", "words"));
+            // the bundled grown appended in pieces of every size of line
+            String grown = TempFile("");
+            Stats pieces = new Stats();
+            pieces.SetTokenIndex(true);
+            pieces.Initialise(grown);
+            pieces.GetCharFrequency();
+            byte[] bytes;
+            try{ bytes = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get("pride-and-prej.txt")); }
+            catch(IOException e){ throw new Error(e); }
+            for(int start = 0, step = 1; start < bytes.length; start += step, step = step * 7 % 100003 + 1){
+                AppendTo(grown, Arrays.copyOfRange(bytes, start, Math.min(bytes.length, start + step)));
+                pieces.Refresh();
+            }
+            claim(RefreshesSame(pieces, grown, "Elizabeth", "the", "Darcy"));
+        }
+        try{
+            new Stats().Refresh();
+            claim(false);
+        }
+        catch(Error e){ claim(!e.getMessage().equals("Test failure")); }
+
+        ////////////////////////////  Snapshot  /////////////////////////////////
+        {
+            String file = TempFile("one two\nthree\n");
+            Stats source = new Stats();
+            source.SetTokenIndex(true);
+            source.Initialise(file);
+            TokenIndex index = source.tokenIndex;
+            StatsSnapshot before = source.Snapshot();
+            // the token index is shared with the snapshot until a refresh changes it
+            claim(source.tokenIndex == index && source.Snapshot() != before);
+            AppendTo(file, "three four\n");
+            source.Refresh();
+            claim(source.tokenIndex != index && index.Get("three", true).Count() == 1);
+            // offsets the snapshot holds are copied before they are overwritten, as a last line is read again
+            AppendTo(file, "five");
+            source.Refresh();
+            StatsSnapshot unfinished = source.Snapshot();
+            Rewrite(file, "one two\nthree\nthree four\n  ve six\n");
+            source.Refresh();
+            claim(unfinished.WordCount() == 6 && unfinished.GetStringFromWord(5, 6).equals("five"));
+            claim(source.WordCount() == 7 && source.GetWordIndex(6) == before.GetDocument().length() + 16);
+            claim(before.LineCount() == 2 && before.TokenCount("three", true) == 1 && before.GetDocument().equals("one two\nthree\n"));
+            claim(source.LineCount() == 4 && source.TokenCount("three", true) == 2);
+            // changing what is handed out does not change the snapshot
+            before.GetTokenWords("three", true)[0] = 99;
+            claim(before.GetTokenWords("three", true)[0] == 2);
+            source.Reset();
+            claim(before.WordCount() == 3 && before.MostCommonCharacter(true).equals("e"));
+            try{
+                source.Snapshot();
+                claim(false);
+            }
+            catch(Error e){ claim(!e.getMessage().equals("Test failure")); }
+        }
+        {
+            // many threads querying one snapshot of the novel get the same answers as one thread
+            Stats loaded = new Stats();
+            loaded.SetTokenIndex(true);
+            loaded.Initialise("pride-and-prej.txt");
+            StatsSnapshot shared = loaded.Snapshot();
+            List<String> names = Arrays.asList("Elizabeth", "Darcy", "Bingley", "Jane");
+            java.util.function.Function<StatsSnapshot, List<Object>> queries = snap -> Arrays.asList(
+                snap.WordCount(), snap.LineCount(), snap.CharCount(), snap.AvgWordLen(),
+                snap.TokenCount("Elizabeth", false), Arrays.toString(snap.GetTokenWords("Darcy", true)),
+                snap.StringsCount(snap.GetDocument(), names, false, false), snap.MostCommonString(names, true, false),
+                snap.CountOcurranceString(snap.GetDocument(), "Pemberley", true, true),
+                snap.MatchesFromRegex(snap.GetDocument(), "Mr\\. \\w+").Strings(),
+                snap.GetCharactersUsed(false), snap.MostCommonCharacter(false), snap.TopK(10, false),
+                snap.GetStringFromLine(100, 110), snap.GetStringFromWord(500, 520), snap.GetStringFromDocument(1000, 1200));
+            // and race to build the character frequencies of a Stats that no one is changing
+            Stats lazy = new Stats("test.txt");
+            List<Object> expected = queries.apply(loaded.Snapshot());
+            int threads = 4;
+            java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+            java.util.concurrent.atomic.AtomicInteger failures = new java.util.concurrent.atomic.AtomicInteger();
+            java.util.concurrent.ConcurrentHashMap<CharFrequency, Boolean> frequencies = new java.util.concurrent.ConcurrentHashMap<>();
+            List<Thread> workers = new ArrayList<>();
+            for(int t = 0; t < threads; t++){
+                Thread worker = new Thread(() -> {
+                    try{
+                        start.await();
+                        frequencies.put(lazy.GetCharFrequency(), true);
+                        for(int i = 0; i < 2; i++){
+                            if(!queries.apply(shared).equals(expected)){ failures.incrementAndGet(); }
+                        }
+                    }
+                    catch(Throwable e){ failures.incrementAndGet(); }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            start.countDown();
+            // the Stats the snapshot was taken from carries on changing underneath it
+            loaded.Reset();
+            loaded.Initialise("test.txt");
+            for(Thread worker : workers){
+                try{ worker.join(); }
+                catch(InterruptedException e){ throw new Error(e); }
+            }
+            claim(failures.get() == 0);
+            claim(frequencies.size() == 1);
+        }
+
+        ////////////////////////////  Sketch  ///////////////////////////////////
+        // estimates from one pass over the bundled novel must be within their documented bounds of the exact counts
+        for(boolean cs : new boolean[]{ true, false }){
+            Stats sketched = new Stats();
+            sketched.SetSketch(1 << 20, cs);
+            sketched.Initialise("pride-and-prej.txt");
+            Sketch sketch = sketched.GetSketch();
+            LinkedHashMap<String, Integer> exact = sketched.TopK(sketched.AllCharCount(), cs);
+            claim(sketch.TokenCount() == exact.values().stream().mapToLong(Integer::longValue).sum());
+            claim(Math.abs(sketch.DistinctEstimate() - exact.size()) <= 3 * sketch.DistinctError() * exact.size());
+            int over = 0;
+            for(Map.Entry<String, Integer> e : exact.entrySet()){
+                long estimate = sketch.Count(e.getKey());
+                claim(estimate >= e.getValue());
+                if(estimate > e.getValue() + sketch.CountError()){ over++; }
+            }
+            claim(over <= exact.size() * (1 - sketch.CountConfidence()));
+            List<String> exactTop = new ArrayList<>(exact.keySet()).subList(0, 10);
+            LinkedHashMap<String, Long> heavy = sketch.Top(10);
+            claim(new TreeSet<>(heavy.keySet()).equals(new TreeSet<>(exactTop)));
+            for(Map.Entry<String, Long> e : heavy.entrySet()){ claim(e.getValue() - exact.get(e.getKey()) <= sketch.CountError()); }
+            claim(sketch.Count("missing") <= sketch.CountError() && sketch.MemoryBytes() <= 1 << 20);
+
+            // sketching chunks on several threads and merging them is the same as sketching on one
+            Stats parallel = new Stats();
+            parallel.SetSketch(1 << 20, cs);
+            parallel.SetParallelism(4);
+            parallel.minChunkSize = 1 << 12;
+            parallel.Initialise("pride-and-prej.txt");
+            claim(SameSketch(parallel.GetSketch(), sketch, exact.keySet()));
+            // as is merging the sketches of two halves of the document
+            String novelText = sketched.GetDocument();
+            int half = sketched.GetLineIndex(sketched.LineCount() / 2);
+            Sketch first = new Sketch(1 << 20, cs);
+            Sketch second = first.Empty();
+            first.Add(novelText, 0, half);
+            second.Add(novelText, half, novelText.length());
+            first.Merge(second);
+            claim(SameSketch(first, sketch, exact.keySet()));
+            claim(SameSketch(sketched.Snapshot().GetSketch(), sketch, exact.keySet()));
+            // and a file too large for Stats is sketched the same way from its bytes
+            try{ claim(SameSketch(new ByteDocument("pride-and-prej.txt", true).GetSketch(1 << 20, cs), sketch, exact.keySet())); }
+            catch(IOException e){ throw new Error(e); }
+
+            // a tiny sketch still never undercounts
+            Sketch tiny = new Sketch(Sketch.MIN_MEMORY, cs);
+            tiny.Add(novelText, 0, novelText.length());
+            claim(tiny.MemoryBytes() <= Sketch.MIN_MEMORY && tiny.TokenCount() == sketch.TokenCount());
+            for(String w : exactTop){ claim(tiny.Count(w) >= exact.get(w)); }
+        }
+        // the sidecar and Scanner loaders sketch the document once it is read in
+        {
+            Stats read = new Stats();
+            read.SetSketch(Sketch.MIN_MEMORY, false);
+            read.Initialise("test.txt");
+            Stats scanned = new Stats();
+            scanned.SetSketch(Sketch.MIN_MEMORY, false);
+            scanned.InitialiseWithScanner("test.txt");
+            claim(SameSketch(scanned.GetSketch(), read.GetSketch(), read.TopK(100, false).keySet()));
+            String file = TempFile(read.GetDocument());
+            Sidecar.PathFor(java.nio.file.Paths.get(file)).toFile().deleteOnExit();
+            for(int i = 0; i < 2; i++){
+                Stats cached = new Stats();
+                cached.SetSidecar(true);
+                cached.SetSketch(Sketch.MIN_MEMORY, false);
+                cached.Initialise(file);
+                claim(cached.loadedFromSidecar == (i == 1));
+                claim(SameSketch(cached.GetSketch(), read.GetSketch(), read.TopK(100, false).keySet()));
+            }
+        }
+        Sketch folded = new Sketch(Sketch.MIN_MEMORY, false);
+        String mixed = "The the THE th\u00e9 x-the";
+        folded.Add(mixed, 0, mixed.length());
+        claim(folded.TokenCount() == 6 && folded.Count("the") == 4 && folded.Count("THE") == 4);
+        claim(folded.Top(1).equals(Map.of("the", 4L)) && folded.DistinctEstimate() == 3);
+        try{
+            folded.Merge(new Sketch(Sketch.MIN_MEMORY, true));
+            claim(false);
+        }
+        catch(Error e){ claim(!e.getMessage().equals("Test failure")); }
+        try{
+            new Stats("test.txt").GetSketch();
+            claim(false);
+        }
+        catch(Error e){ claim(!e.getMessage().equals("Test failure")); }
+        // counts follow a file being appended to, including a last line that was read before it was finished
+        {
+            String file = TempFile("one two\nthr");
+            Stats growing = new Stats();
+            growing.SetSketch(Sketch.MIN_MEMORY, true);
+            growing.Initialise(file);
+            AppendTo(file, "ee two\n");
+            growing.Refresh();
+            Sketch grownSketch = growing.GetSketch();
+            claim(grownSketch.TokenCount() == 4 && grownSketch.Count("two") == 2 && grownSketch.Count("three") == 1);
+            claim(grownSketch.Count("thr") == 0);
+        }
+
+        ////////////////////////////  Metrics  //////////////////////////////////
+        // nothing is recorded while metrics are off
+        Metrics.Reset();
+        Stats measured = new Stats("test.txt");
+        measured.CountOcurranceString(measured.GetDocument(), "a", false, false);
+        claim(countMetric.Calls() == 0 && initialiseMetric.Calls() == 0 && Metrics.Summary().split("\n").length == 1);
+        Metrics.SetEnabled(true);
+        try{
+            measured = new Stats();
+            measured.InitialiseWithScanner("test.txt");
+            measured.Reset();
+            measured.Initialise("test.txt");
+            String measuredText = measured.GetDocument();
+            measured.CountOcurranceString(measuredText, "a", false, false);
+            measured.CountOcurranceString(measuredText, "bb", false, true);
+            measured.StringsCount(measuredText, Arrays.asList("a", "t.e", "it has"), true, true);
+            MatchList measuredWords = measured.MatchesFromRegex(measuredText, "\\w+");
+            measured.UniqueStrings(measuredWords, false);
+            claim(initialiseMetric.Calls() == 1 && initialiseMetric.BytesProcessed() == new File("test.txt").length());
+            claim(Metrics.For("Decode").Calls() == 1 && appendMetric.Calls() == 1);
+            claim(scannerMetric.Calls() == 1 && scanInMetric.Calls() == 1 && processLineMetric.Calls() == 5);
+            // once for each loader rather than for each line, both scanning every char of every line
+            claim(processWordsMetric.Calls() == 2 && processWordsMetric.BytesProcessed() == 4L * (measuredText.length() - measured.LineCount()));
+            claim(uniqueMetric.BytesProcessed() == 2L * measuredWords.CharCount() && measuredWords.CharCount() > 0);
+            claim(countMetric.Calls() == 2 && countMetric.BytesProcessed() == 4L * measuredText.length());
+            claim(stringsCountMetric.Calls() == 1 && matchesMetric.Calls() == 1 && uniqueMetric.Calls() == 1 && mapMetric.Calls() == 0);
+            claim(countMetric.TotalNanos() > 0 && countMetric.Percentile(0.5) > 0 && countMetric.Percentile(0.5) <= countMetric.Percentile(0.99));
+            claim(Metrics.Summary().contains("CountOcurranceString") && !Metrics.Summary().contains("MapFromRegex"));
+            // the same measurements are published over JMX
+            MetricsMXBean bean = javax.management.JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new javax.management.ObjectName(Metrics.OBJECT_NAME), MetricsMXBean.class);
+            claim(bean.isEnabled() && bean.getCalls().get("CountOcurranceString") == 2 && !bean.getCalls().containsKey("MapFromRegex"));
+            claim(bean.getBytesProcessed().get("Initialise") == new File("test.txt").length());
+            claim(bean.getP99Nanos().get("CountOcurranceString") == countMetric.Percentile(0.99));
+            if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean){
+                claim(bean.getAllocatedBytes().get("Initialise") > 0);
+            }
+            bean.reset();
+            claim(countMetric.Calls() == 0 && bean.getCalls().isEmpty());
+            // a refresh is recorded whether the file is unchanged, added to or read in again
+            String watched = TempFile("one\n");
+            Stats refreshed = new Stats(watched);
+            refreshed.Refresh();
+            AppendTo(watched, "two\n");
+            refreshed.Refresh();
+            Rewrite(watched, "six\nten\n");
+            refreshed.Refresh();
+            claim(refreshMetric.Calls() == 3 && refreshMetric.BytesProcessed() == 12);
+        }
+        catch(javax.management.MalformedObjectNameException e){ throw new Error(e); }
+        finally{
+            Metrics.SetEnabled(false);
+            Metrics.Reset();
+        }
+
+        ////////////////////////////  IntList  //////////////////////////////////
+        IntList ints = new IntList(2);
+        for(int i = 0; i < 100; i++){ ints.Add(i * 3); }
+        claim(ints.Size() == 100 && ints.Get(40) == 120 && ints.Last() == 297);
+        ints.RemoveLast();
+        claim(ints.ToArray().length == 99 && ints.ToArray()[98] == 294);
+        claim(new IntList(0).ToArray().length == 0);
+
+        // the loader collects offsets as primitive ints. Those of the bundled novel, spare capacity and all, take a
+        // fraction of the heap of the boxed lists the loader used to collect, which need a reference and an Integer each
+        TextChunk decoded;
+        try(FileChannel channel = FileChannel.open(Paths.get("pride-and-prej.txt"), StandardOpenOption.READ)){
+            decoded = TextChunk.Decode(channel, 0, channel.size());
+        }
+        catch(IOException e){ throw new Error(e); }
+        long primitiveHeap = RetainedBytes(decoded.Lines()) + RetainedBytes(decoded.Words());
+        long boxedHeap = BoxedRetainedBytes(decoded.Lines().Size()) + BoxedRetainedBytes(decoded.Words().Size());
+        claim(decoded.Words().Size() > 100000 && primitiveHeap * 3 < boxedHeap);
         System.out.println(" Successful");
     }
+
+    // The heap an IntList retains, on a 64 bit JVM with compressed references: the list, and its backing array's header and ints
+    private static long RetainedBytes(IntList list){ return 24 + 16 + 4L * list.Capacity(); }
+
+    // The heap an ArrayList<Integer> of distinct values retains, without any spare capacity: the list, its array of
+    // references and an Integer object for each value
+    private static long BoxedRetainedBytes(int size){ return 24 + 16 + 4L * size + 16L * size; }
+
+    // Whether two sketches give the same estimates, for the given tokens and overall
+    private static boolean SameSketch(Sketch a, Sketch b, Collection<String> tokens){
+        if(a.TokenCount() != b.TokenCount() || a.DistinctEstimate() != b.DistinctEstimate() || !a.Top(20).equals(b.Top(20))){ return false; }
+        for(String t : tokens){ if(a.Count(t) != b.Count(t)){ return false; } }
+        return true;
+    }
+
+    // Loads the file with both loaders and compares every field they populate
+    private static boolean LoadsSameAsScanner(String filePath){
+        Stats scanned = new Stats();
+        scanned.InitialiseWithScanner(filePath);
+        return SameState(new Stats(filePath), scanned);
+    }
+
+    // Whether two Stats objects hold the same document, indices and counts
+    private static boolean SameState(Stats a, Stats b){
+        return a.document.equals(b.document)
+            && Arrays.equals(a.lineIndex.ToArray(), b.lineIndex.ToArray())
+            && Arrays.equals(a.wordIndex.ToArray(), b.wordIndex.ToArray())
+            && a.lineCount == b.lineCount
+            && a.wordCount == b.wordCount
+            && a.charCount == b.charCount;
+    }
+
+    // Refreshes a Stats with its token index and character frequencies built, and compares it with reading the file in afresh
+    private static boolean RefreshesSame(Stats s, String filePath, String... tokens){
+        s.Refresh();
+        Stats fresh = new Stats();
+        fresh.SetTokenIndex(true);
+        fresh.Initialise(filePath);
+        boolean same = SameState(s, fresh)
+            && s.tokenIndex.DistinctCount(true) == fresh.tokenIndex.DistinctCount(true)
+            && s.tokenIndex.DistinctCount(false) == fresh.tokenIndex.DistinctCount(false)
+            && s.GetCharactersUsed(true).equals(fresh.GetCharactersUsed(true))
+            && s.GetCharactersUsed(false).equals(fresh.GetCharactersUsed(false))
+            && Objects.equals(s.MostCommonCharacter(true), fresh.MostCommonCharacter(true));
+        for(String t : tokens){
+            same &= s.TokenCount(t, false) == fresh.TokenCount(t, false)
+                 && Arrays.equals(s.GetTokenWords(t, true), fresh.GetTokenWords(t, true))
+                 && Arrays.equals(s.GetTokenWords(t, false), fresh.GetTokenWords(t, false));
+        }
+        return same;
+    }
+
+    // Replaces the content of a file, moving its modification time on so the change is seen however coarse the file system's clock
+    private static void Rewrite(String filePath, String content){
+        Path path = Paths.get(filePath);
+        try{
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(path, java.nio.file.attribute.FileTime.fromMillis(modified + 1000));
+        }
+        catch(IOException e){ throw new Error(e); }
+    }
+
+    // Adds to the end of a file
+    private static void AppendTo(String filePath, String content){ AppendTo(filePath, content.getBytes(StandardCharsets.UTF_8)); }
+
+    private static void AppendTo(String filePath, byte[] content){
+        try{ java.nio.file.Files.write(java.nio.file.Paths.get(filePath), content, StandardOpenOption.APPEND); }
+        catch(IOException e){ throw new Error(e); }
+    }
+
+    // Reads a file as bytes keeping one in so many line and word offsets, and compares every line and word with reading it in with Stats
+    private static boolean BytesSameAsStats(String filePath, boolean onHeap, int lineStride, int wordStride){
+        Stats s = new Stats(filePath);
+        ByteDocument b;
+        try{ b = new ByteDocument(filePath, onHeap, lineStride, wordStride); }
+        catch(IOException e){ throw new Error(e); }
+        boolean same = b.LineCount() == s.LineCount() && b.WordCount() == s.WordCount() && b.CharCount() == s.CharCount()
+            && b.GetLineIndex(b.LineCount()) == b.ByteCount() && b.GetWordIndex(b.WordCount()) == b.ByteCount()
+            && s.GetStringFromLine(0, s.LineCount()).equals(b.GetStringFromLine(0, b.LineCount()))
+            && s.GetCharactersUsed(true).equals(b.GetCharFrequency().CharactersUsed(true))
+            && Objects.equals(s.MostCommonCharacter(false), b.MostCommonCharacter(false));
+        for(int line = 0; line < s.LineCount() && same; line++){
+            same = s.GetStringFromLine(line, line + 1).equals(b.GetStringFromLine(line, line + 1))
+                && b.LineOf(b.GetLineIndex(line)) == line
+                && b.LineOf(b.GetLineIndex(line + 1) - 1) == line;
+        }
+        for(int word = 0; word < s.WordCount() && same; word++){
+            same = s.GetStringFromWord(word, word + 1).equals(b.GetStringFromWord(word, word + 1))
+                && b.WordOf(b.GetWordIndex(word)) == word
+                && b.WordOf(b.GetWordIndex(word + 1) - 1) == word;
+        }
+        return same;
+    }
+
+    // Loads a file with the sidecar enabled
+    private static Stats WithSidecar(String filePath, boolean tokens){
+        Stats s = new Stats();
+        s.SetSidecar(true);
+        s.SetTokenIndex(tokens);
+        s.Initialise(filePath);
+        return s;
+    }
+
+    // Loads the file on one thread and in parallel with the given chunk size, and compares every field they populate
+    private static boolean LoadsSameInParallel(String filePath, int threads, long chunkSize){
+        Stats sequential = new Stats(filePath);
+        Stats parallel = new Stats();
+        parallel.SetParallelism(threads);
+        parallel.minChunkSize = chunkSize;
+        parallel.Initialise(filePath);
+        return SameState(parallel, sequential);
+    }
+
+    // Writes the content to a temporary file that is removed on exit, returns its path
+    private static String TempFile(String content){
+        try{
+            File f = File.createTempFile("stats", ".txt");
+            f.deleteOnExit();
+            java.nio.file.Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            return f.getPath();
+        }
+        catch(IOException e){ throw new Error("Could not create temporary test file", e); }
+    }
 }
@@ -0,0 +1,113 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/** An immutable copy of a loaded Stats object, see Stats.Snapshot()
+ *  <p>A snapshot can be shared between any number of threads and queried from all of them
+ *  at once without locking. Regex queries look compiled patterns up in the shared PatternCache
+ *  without locking, only compiling a regex it does not hold takes its lock. Indexes built on first
+ *  use, such as the character frequencies, are built at most once, under the snapshot's lock.</p>
+ *  <p>A snapshot is unaffected by anything done to the Stats it was taken from afterwards, such
+ *  as Refresh or Reset. Taking one does not copy the document, offsets, token index or sketch,
+ *  they are shared until the Stats next changes them, which copies them first.</p>
+ *  <p>Each method answers exactly as the Stats method of the same name did when the snapshot was taken.</p>
+ */
+final class StatsSnapshot{
+
+    // a copy that is never changed once built, or reachable from anywhere else
+    private final Stats stats;
+
+    StatsSnapshot(Stats frozen){ stats = frozen; }
+
+    /** Gets the total number of non-whitespace characers*/
+    public int CharCount(){ return stats.CharCount(); }
+
+    /** Gets the total number of characters, including whitespace */
+    public int AllCharCount(){ return stats.AllCharCount(); }
+
+    /** Gets the total number of words in the document*/
+    public int WordCount(){ return stats.WordCount(); }
+
+    /** Gets the total number of lines in the document*/
+    public int LineCount(){ return stats.LineCount(); }
+
+    /** Gets the average length of all words in the document*/
+    public float AvgWordLen(){ return stats.AvgWordLen(); }
+
+    /** Gets the entire document as a single string */
+    public String GetDocument(){ return stats.GetDocument(); }
+
+    /** Gets the number of times a token appears as a whole word in the document, see Stats.TokenCount */
+    public int TokenCount(String token, boolean caseSensitive){ return stats.TokenCount(token, caseSensitive); }
+
+    /** Gets the numbers of the words that a token appears in, see Stats.GetTokenWords */
+    public int[] GetTokenWords(String token, boolean caseSensitive){ return stats.GetTokenWords(token, caseSensitive); }
+
+    /** Produces a histogram of words, see Stats.StringsCount */
+    public TreeMap<String, Integer> StringsCount(String in, List<String> list, boolean caseSensitive, boolean wholeWord){
+        return stats.StringsCount(in, list, caseSensitive, wholeWord);
+    }
+
+    /** Produces a histogram of words, see Stats.StringsCount */
+    public TreeMap<String, Integer> StringsCount(String in, MatchList matches, boolean caseSensitive, boolean wholeWord){
+        return stats.StringsCount(in, matches, caseSensitive, wholeWord);
+    }
+
+    /** Finds which of the provided strings is the most common in the document, see Stats.MostCommonString */
+    public String MostCommonString(List<String> list, boolean caseSensitive, boolean wholeWord){
+        return stats.MostCommonString(list, caseSensitive, wholeWord);
+    }
+
+    /** Gets the number of ocurrances of one string inside another, see Stats.CountOcurranceString */
+    public int CountOcurranceString(String in, String match, boolean caseSensitive, boolean wholeWord){
+        return stats.CountOcurranceString(in, match, caseSensitive, wholeWord);
+    }
+
+    /** Finds all the matches of the regex, see Stats.MatchesFromRegex */
+    public MatchList MatchesFromRegex(String in, String regex){ return stats.MatchesFromRegex(in, regex); }
+
+    /** Gets a list of unique characters used in this document, see Stats.GetCharactersUsed */
+    public List<String> GetCharactersUsed(boolean caseSensitive){ return stats.GetCharactersUsed(caseSensitive); }
+
+    /** Finds the most common non-whitespace character in the document, see Stats.MostCommonCharacter */
+    public String MostCommonCharacter(boolean caseSensitive){ return stats.MostCommonCharacter(caseSensitive); }
+
+    /** Finds the most frequent tokens in the document, see Stats.TopK */
+    public LinkedHashMap<String, Integer> TopK(int k, boolean caseSensitive){ return stats.TopK(k, caseSensitive); }
+
+    /** Counts the word n-grams and character n-grams of the document, see Stats.GetNGrams */
+    public NGrams GetNGrams(boolean caseSensitive, int maxEntries){ return stats.GetNGrams(caseSensitive, maxEntries); }
+
+    /** Gets a copy of the sketch of the document's tokens, see Stats.GetSketch */
+    public Sketch GetSketch(){ return stats.GetSketch(); }
+
+    /** Gets the contents between the given line numbers, see Stats.GetStringFromLine */
+    public String GetStringFromLine(int startLineNumber, int endLineNumber){ return stats.GetStringFromLine(startLineNumber, endLineNumber); }
+
+    /** Gets the contents between the given word numbers, see Stats.GetStringFromWord */
+    public String GetStringFromWord(int startWordNumber, int endWordNumber){ return stats.GetStringFromWord(startWordNumber, endWordNumber); }
+
+    /** Gets a substring from the document based on the start and end indexes, see Stats.GetStringFromDocument */
+    public String GetStringFromDocument(int startIndex, int endIndex){ return stats.GetStringFromDocument(startIndex, endIndex); }
+
+    /** Gets a view of the contents between the given line numbers, see Stats.ViewFromLine */
+    public CharSequence ViewFromLine(int startLineNumber, int endLineNumber){ return stats.ViewFromLine(startLineNumber, endLineNumber); }
+
+    /** Gets a view of the contents between the given word numbers, see Stats.ViewFromWord */
+    public CharSequence ViewFromWord(int startWordNumber, int endWordNumber){ return stats.ViewFromWord(startWordNumber, endWordNumber); }
+
+    /** Gets a view of part of the document, see Stats.ViewFromDocument */
+    public CharSequence ViewFromDocument(int startIndex, int endIndex){ return stats.ViewFromDocument(startIndex, endIndex); }
+
+    /** Gets the number of the line that an index in the document is on, see Stats.LineOf */
+    public int LineOf(int index){ return stats.LineOf(index); }
+
+    /** Gets the number of the word that an index in the document is in, see Stats.WordOf */
+    public int WordOf(int index){ return stats.WordOf(index); }
+
+    /** Gets the index in the document at the start of the given line number */
+    public int GetLineIndex(int lineNumber){ return stats.GetLineIndex(lineNumber); }
+
+    /** Gets the index in the document at the start of the given word number */
+    public int GetWordIndex(int wordNumber){ return stats.GetWordIndex(wordNumber); }
+}
@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/** The text, line and word offsets and counts decoded from one part of a file
+ *  <p>The bytes are memory mapped one window at a time and decoded as UTF-8 through a
+ *  fixed size buffer, building the text, line index and word index in a single pass.
+ *  Line terminators are the same as Scanner.nextLine() and are all stored as a single '\n'.
+ *  Offsets are relative to the start of the chunk.</p>
+ */
+class TextChunk{
+
+    /** Size of the window of the file mapped into memory at any one time */
+    private static final long MAP_WINDOW = 1L << 28;
+    /** Size of the fixed buffer that mapped bytes are decoded into */
+    private static final int CHAR_BUFFER_SIZE = 1 << 16;
+
+    // operations measured while metrics are on, see Metrics
+    private static final Metrics.Operation decodeMetric = Metrics.For("Decode");
+    private static final Metrics.Operation processWordsMetric = Metrics.For("ProcessWords");
+
+    private StringBuilder text;
+    private final IntList lineInd = new IntList();
+    private final IntList wordInd = new IntList();
+    private int charCount = 0;
+    private boolean lastWasCR = false;
+    private boolean rewritten = false;
+    // how many lines have had their words scanned in, and the time and chars taken to, see ScanWords
+    private int linesScanned = 0;
+    private long wordNanos = 0;
+    private long wordChars = 0;
+    private Sketch sketch;
+    private final long byteCount;
+    // the CRC32C of the chunk's bytes, 0 unless asked for
+    private long hash = 0;
+
+    private TextChunk(long byteCount){
+        this.byteCount = byteCount;
+        text = new StringBuilder((int) byteCount + 1);
+        lineInd.Add(0);
+    }
+
+    /** Decodes part of a file
+     * @param  channel The open file
+     * @param  start   The byte offset to start at, which must be the start of a line
+     * @param  end     The byte offset to end at, which must be the end of a line or of the file
+     * @return         The decoded chunk
+     */
+    static TextChunk Decode(FileChannel channel, long start, long end) throws IOException{ return Decode(channel, start, end, null); }
+
+    /** Decodes part of a file, sketching its tokens as well
+     * @param  channel The open file
+     * @param  start   The byte offset to start at, which must be the start of a line
+     * @param  end     The byte offset to end at, which must be the end of a line or of the file
+     * @param  sketch  An empty sketch to add the chunk's tokens to, see TokenSketch. Null to skip sketching
+     * @return         The decoded chunk
+     */
+    static TextChunk Decode(FileChannel channel, long start, long end, Sketch sketch) throws IOException{ return Decode(channel, start, end, sketch, false); }
+
+    /** Decodes part of a file, sketching its tokens and hashing its bytes as they are read
+     * @param  channel The open file
+     * @param  start   The byte offset to start at, which must be the start of a line
+     * @param  end     The byte offset to end at, which must be the end of a line or of the file
+     * @param  sketch  An empty sketch to add the chunk's tokens to, see TokenSketch. Null to skip sketching
+     * @param  hash    Should the CRC32C of the chunk's bytes be taken? See Hash
+     * @return         The decoded chunk
+     */
+    static TextChunk Decode(FileChannel channel, long start, long end, Sketch sketch, boolean hash) throws IOException{
+        if(end - start >= Integer.MAX_VALUE){ throw new Error("File is too large to be held as a single document"); }
+        Metrics.Timer timer = decodeMetric.Start();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        TextChunk chunk = new TextChunk(end - start);
+        CRC32C crc = hash ? new CRC32C() : null;
+        long position = start;
+        do{
+            long window = Math.min(MAP_WINDOW, end - position);
+            boolean endOfInput = position + window == end;
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+            CoderResult result;
+            do{
+                result = decoder.decode(bytes, chars, endOfInput);
+                chunk.Scan(chars);
+                chunk.ScanWords();
+            }while(result.isOverflow());
+            // only the bytes decoded so far, a character split by the end of the window is mapped again with the next
+            if(crc != null){ crc.update((ByteBuffer) bytes.duplicate().flip()); }
+            position += bytes.position();
+        }while(position < end);
+        decoder.flush(chars);
+        chunk.Scan(chars);
+        // a final line without a line terminator still counts as a line
+        if(chunk.text.length() > chunk.lineInd.Last()){
+            chunk.EndLine();
+            chunk.rewritten = true;
+        }
+        chunk.ScanWords();
+        chunk.lineInd.RemoveLast();
+        // recorded as one call for the chunk, as timing every line would cost more than scanning it
+        processWordsMetric.Record(chunk.wordNanos, 2L * chunk.wordChars);
+        if(crc != null){ chunk.hash = crc.getValue(); }
+        if(sketch != null){
+            sketch.Add(chunk.text, 0, chunk.text.length());
+            chunk.sketch = sketch;
+        }
+        timer.Stop(end - start);
+        return chunk;
+    }
+
+    /** Scans in each word in a line, populates the word index.
+     *  <p>A single pass over the characters of the line, without regex or temporary Strings.
+     *  A word is any run of characters that are not whitespace as matched by '\\s'. Not timed itself,
+     *  as it is called for every line, callers time the lines they scan together</p>
+     * @param  text    The text holding the line
+     * @param  start   The index in text of the start of the line
+     * @param  end     The index in text of the end of the line
+     * @param  wordInd Where the index in text of the start of each word is added
+     * @return         The number of non-whitespace characters in the line
+     */
+    static int ProcessWords(CharSequence text, int start, int end, IntList wordInd){
+        int chars = 0;
+        boolean inWord = false;
+        for(int i = start; i < end; i++){
+            if(Stats.IsWhitespace(text.charAt(i))){
+                inWord = false;
+                continue;
+            }
+            if(!inWord){
+                inWord = true;
+                wordInd.Add(i);
+            }
+            chars++;
+        }
+        return chars;
+    }
+
+    /** Gets the decoded text */
+    StringBuilder Text(){ return text; }
+
+    /** Gets the index in the text of the start of each line */
+    IntList Lines(){ return lineInd; }
+
+    /** Gets the index in the text of the start of each word */
+    IntList Words(){ return wordInd; }
+
+    /** Gets the number of non-whitespace characters */
+    int CharCount(){ return charCount; }
+
+    /** Whether the text differs from simply decoding the bytes, as line terminators were rewritten or added */
+    boolean IsRewritten(){ return rewritten; }
+
+    /** Gets the sketch of the chunk's tokens, null if it was not sketched */
+    Sketch TokenSketch(){ return sketch; }
+
+    /** Gets the number of bytes of the file the chunk was decoded from */
+    long ByteCount(){ return byteCount; }
+
+    /** Gets the CRC32C of the bytes the chunk was decoded from, 0 unless Decode was asked to hash them */
+    long Hash(){ return hash; }
+
+    /** Drops the text once it has been copied elsewhere */
+    void ReleaseText(){ text = null; }
+
+    /** Appends a buffer of decoded characters to the text, ending a line at each line terminator */
+    private void Scan(CharBuffer chars){
+        chars.flip();
+        char[] arr = chars.array();
+        int end = chars.limit();
+        int runStart = 0;
+        for(int i = 0; i < end; i++){
+            char c = arr[i];
+            if(!Stats.IsLineTerminator(c)){
+                lastWasCR = false;
+                continue;
+            }
+            text.append(arr, runStart, i - runStart);
+            runStart = i + 1;
+            rewritten |= c != '\n';
+            if(lastWasCR && c == '\n'){
+                lastWasCR = false;
+                continue;
+            }
+            EndLine();
+            lastWasCR = c == '\r';
+        }
+        text.append(arr, runStart, end - runStart);
+        chars.clear();
+    }
+
+    /** Ends the line currently at the end of the text */
+    private void EndLine(){
+        text.append('\n');
+        lineInd.Add(text.length());
+    }
+
+    /** Scans in the words of the lines ended since the last call, while they are still in cache */
+    private void ScanWords(){
+        boolean timed = Metrics.IsEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        int ended = lineInd.Size() - 1;
+        for(; linesScanned < ended; linesScanned++){
+            int lineStart = lineInd.Get(linesScanned);
+            int lineEnd = lineInd.Get(linesScanned + 1) - 1;
+            charCount += ProcessWords(text, lineStart, lineEnd, wordInd);
+            wordChars += lineEnd - lineStart;
+        }
+        if(timed){ wordNanos += System.nanoTime() - start; }
+    }
+}
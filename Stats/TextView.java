@@ -0,0 +1,54 @@
+/** A read only view of part of a String, sharing the String's characters rather than copying them
+ *  <p>Views of a document are cheap to make, whatever their length, so can be used freely when
+ *  scanning matches or lines. Only toString copies the characters. See Stats.ViewFromLine</p>
+ */
+final class TextView implements CharSequence{
+
+    private final String text;
+    private final int start;
+    private final int end;
+
+    /** Creates a view
+     * @param text  The String to view
+     * @param start The index in text that the view starts at
+     * @param end   The index in text that the view ends at
+     */
+    TextView(String text, int start, int end){
+        if(start < 0 || end > text.length() || start > end){ throw new IndexOutOfBoundsException("View " + start + " to " + end + " of length " + text.length()); }
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+
+    /** Gets the index in the viewed String that the view starts at */
+    public int Start(){ return start; }
+
+    /** Gets the index in the viewed String that the view ends at */
+    public int End(){ return end; }
+
+    /** Gets a view without any trailing whitespace, as matched by '\\s' */
+    public TextView TrimEnd(){
+        int trimmed = end;
+        while(trimmed > start && Stats.IsWhitespace(text.charAt(trimmed - 1))){ trimmed--; }
+        return trimmed == end ? this : new TextView(text, start, trimmed);
+    }
+
+    @Override
+    public int length(){ return end - start; }
+
+    @Override
+    public char charAt(int index){
+        if(index < 0 || index >= end - start){ throw new IndexOutOfBoundsException("Index " + index + " of length " + (end - start)); }
+        return text.charAt(start + index);
+    }
+
+    @Override
+    public TextView subSequence(int from, int to){
+        if(from < 0 || to > end - start || from > to){ throw new IndexOutOfBoundsException("View " + from + " to " + to + " of length " + (end - start)); }
+        return new TextView(text, start + from, start + to);
+    }
+
+    /** Copies the viewed characters into a String */
+    @Override
+    public String toString(){ return text.substring(start, end); }
+}
@@ -0,0 +1,215 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** An inverted index of the tokens in a document
+ *  <p>A token is a run of word characters inside one of the document's words, the
+ *  same characters that the regex '\\b' treats as part of a word. Each distinct token
+ *  maps to its count and the numbers of the words (positions in wordIndex) that it
+ *  appears in, both as written and case folded.</p>
+ *  <p>Case folding matches regex case insensitive matching, only US-ASCII letters are folded.</p>
+ */
+class TokenIndex{
+
+    /** The occurrences of a single distinct token */
+    static final class Postings{
+        private int count = 0;
+        private final IntList words = new IntList(2);
+
+        /** Gets the number of times the token appears in the document */
+        public int Count(){ return count; }
+
+        /** Gets the word numbers the token appears in, in document order.
+         *  A word appears once for each time the token appears in it. The array is a copy */
+        public int[] Words(){
+            int[] ret = new int[words.Size()];
+            for(int i = 0; i < ret.length; i++){ ret[i] = words.Get(i); }
+            return ret;
+        }
+
+        /** Gets the number of word numbers held */
+        int Size(){ return words.Size(); }
+
+        /** Gets a word number the token appears in */
+        int Word(int i){ return words.Get(i); }
+
+        private void Add(int wordNumber){
+            count++;
+            words.Add(wordNumber);
+        }
+
+        private Postings Copy(){
+            Postings copy = new Postings();
+            copy.count = count;
+            copy.words.AddAll(words.ToArray());
+            return copy;
+        }
+
+        private void RemoveLast(){
+            count--;
+            words.RemoveLast();
+        }
+    }
+
+    private final HashMap<String, Postings> exact = new HashMap<>();
+    private final HashMap<String, Postings> folded = new HashMap<>();
+
+    private TokenIndex(){}
+
+    /** Builds the index over every word of a document
+     * @param document  The document text
+     * @param wordIndex The index in the document of the start of each word
+     */
+    TokenIndex(String document, IntList wordIndex){ AddWords(document, wordIndex, 0, wordIndex.Size()); }
+
+    /** Adds the tokens of a range of words, which must follow every word already in the index
+     * @param document  The document text
+     * @param wordIndex The index in the document of the start of each word
+     * @param from      The first word number to add
+     * @param to        The word number to stop before
+     */
+    void AddWords(String document, IntList wordIndex, int from, int to){
+        List<String> tokens = new ArrayList<>();
+        for(int w = from; w < to; w++){
+            Tokens(document, wordIndex.Get(w), tokens);
+            for(String token : tokens){ Add(token, w); }
+        }
+    }
+
+    /** Removes the tokens of a range of words, which must be the last words in the index
+     * @param document  The document text, still holding the words
+     * @param wordIndex The index in the document of the start of each word
+     * @param from      The first word number to remove
+     * @param to        The word number to stop before
+     */
+    void RemoveWords(String document, IntList wordIndex, int from, int to){
+        List<String> tokens = new ArrayList<>();
+        for(int w = to - 1; w >= from; w--){
+            Tokens(document, wordIndex.Get(w), tokens);
+            for(int t = tokens.size() - 1; t >= 0; t--){
+                Remove(exact, tokens.get(t));
+                Remove(folded, Fold(tokens.get(t)));
+            }
+        }
+    }
+
+    /** Copies the index, so the copy is unaffected by words later added to or removed from this one */
+    TokenIndex Copy(){
+        TokenIndex copy = new TokenIndex();
+        for(Map.Entry<String, Postings> e : exact.entrySet()){ copy.exact.put(e.getKey(), e.getValue().Copy()); }
+        for(Map.Entry<String, Postings> e : folded.entrySet()){ copy.folded.put(e.getKey(), e.getValue().Copy()); }
+        return copy;
+    }
+
+    /** Gets the occurrences of a token
+     * @param  token         The token to look up
+     * @param  caseSensitive Should this lookup be case sensitive?
+     * @return               The occurrences of the token, null if it is not in the document
+     */
+    public Postings Get(String token, boolean caseSensitive){
+        if(caseSensitive){ return exact.get(token); }
+        return folded.get(Fold(token));
+    }
+
+    /** Gets the number of distinct tokens in the document
+     * @param caseSensitive Should tokens differing only by case be counted separately?
+     */
+    public int DistinctCount(boolean caseSensitive){ return caseSensitive ? exact.size() : folded.size(); }
+
+    /** Writes the index. Only the case sensitive tokens are written, the folded ones are rebuilt from them by Read */
+    void Write(DataOutputStream out) throws IOException{
+        out.writeInt(exact.size());
+        for(Map.Entry<String, Postings> e : exact.entrySet()){
+            byte[] token = e.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(token.length);
+            out.write(token);
+            Postings p = e.getValue();
+            out.writeInt(p.Size());
+            for(int i = 0; i < p.Size(); i++){ out.writeInt(p.Word(i)); }
+        }
+    }
+
+    /** Reads an index written by Write, leaving the buffer positioned after it */
+    static TokenIndex Read(ByteBuffer in){
+        TokenIndex index = new TokenIndex();
+        int distinct = in.getInt();
+        for(int t = 0; t < distinct; t++){
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            String token = new String(bytes, StandardCharsets.UTF_8);
+            int[] words = new int[in.getInt()];
+            in.asIntBuffer().get(words);
+            in.position(in.position() + words.length * Integer.BYTES);
+            Postings p = new Postings();
+            p.count = words.length;
+            p.words.AddAll(words);
+            index.exact.put(token, p);
+            Postings f = index.folded.computeIfAbsent(Fold(token), k -> new Postings());
+            f.count += words.length;
+            f.words.AddAll(words);
+        }
+        for(Postings f : index.folded.values()){ f.words.Sort(); }
+        return index;
+    }
+
+    /** Whether the string is a single token, so can be answered by this index */
+    static boolean IsToken(String s){
+        if(s == null || s.isEmpty()){ return false; }
+        for(int i = 0; i < s.length(); ){
+            int cp = s.codePointAt(i);
+            if(!Stats.IsWordChar(cp)){ return false; }
+            i += Character.charCount(cp);
+        }
+        return true;
+    }
+
+    /** Folds the US-ASCII letters of a string to lower case, the same folding as regex case insensitive matching */
+    static String Fold(String s){
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            if(c >= 'A' && c <= 'Z'){
+                char[] chars = s.toCharArray();
+                for(int j = i; j < chars.length; j++){
+                    if(chars[j] >= 'A' && chars[j] <= 'Z'){ chars[j] += 'a' - 'A'; }
+                }
+                return new String(chars);
+            }
+        }
+        return s;
+    }
+
+    private void Add(String token, int wordNumber){
+        exact.computeIfAbsent(token, t -> new Postings()).Add(wordNumber);
+        folded.computeIfAbsent(Fold(token), t -> new Postings()).Add(wordNumber);
+    }
+
+    private static void Remove(HashMap<String, Postings> map, String token){
+        Postings p = map.get(token);
+        p.RemoveLast();
+        if(p.Count() == 0){ map.remove(token); }
+    }
+
+    /** Splits the word starting at the given index of the document into its tokens */
+    private static void Tokens(String document, int wordStart, List<String> tokens){
+        tokens.clear();
+        int i = wordStart;
+        int tokenStart = -1;
+        while(i < document.length() && !Stats.IsWhitespace(document.charAt(i))){
+            int cp = document.codePointAt(i);
+            if(Stats.IsWordChar(cp)){
+                if(tokenStart < 0){ tokenStart = i; }
+            }
+            else if(tokenStart >= 0){
+                tokens.add(document.substring(tokenStart, i));
+                tokenStart = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        if(tokenStart >= 0){ tokens.add(document.substring(tokenStart, i)); }
+    }
+}
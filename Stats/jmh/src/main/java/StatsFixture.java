@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/** The Stats side of the JMH benchmarks, see stats.jmh.Fixture */
+public class StatsFixture implements stats.jmh.Fixture{
+    private static final String SOURCE = "pride-and-prej.txt";
+
+    private String path;
+    private Stats stats;
+    private String document;
+    private TreeMap<Integer, String> wordMap;
+    private MatchList wordMatches;
+    private List<String> common;
+    private String word;
+    private ByteDocument mapped;
+
+    @Override
+    public void load(String file){
+        path = Files.exists(Paths.get(file)) ? file : Synthetic(ParseSize(file));
+        stats = new Stats(path);
+        if(!stats.IsInitialised()){ throw new Error("Could not load " + path + ", run the benchmarks from the Stats directory"); }
+        document = stats.GetDocument();
+        wordMatches = stats.MatchesFromRegex(document, "\\w+");
+        wordMap = wordMatches.ToMap();
+        common = new ArrayList<>(stats.TopK(100, false).keySet());
+        word = common.isEmpty() ? "a" : common.get(0);
+        stats.GetCharactersUsed(false);
+        mapped = (ByteDocument) loadMapped();
+    }
+
+    @Override
+    public Object initialise(){ return new Stats(path); }
+
+    @Override
+    public Object initialiseWithScanner(){
+        Stats scanned = new Stats();
+        scanned.InitialiseWithScanner(path);
+        return scanned;
+    }
+
+    @Override
+    public Object loadMapped(){
+        try{ return new ByteDocument(path, false); }
+        catch(IOException e){ throw new UncheckedIOException(e); }
+    }
+
+    @Override
+    public int countOcurranceString(boolean wholeWord){ return stats.CountOcurranceString(document, word, false, wholeWord); }
+
+    @Override
+    public Object stringsCount(){ return stats.StringsCount(document, common, false, false); }
+
+    @Override
+    public Object mapFromRegex(){ return stats.MapFromRegex(document, "\\w+"); }
+
+    @Override
+    public Object matchesFromRegex(){ return stats.MatchesFromRegex(document, "\\w+"); }
+
+    @Override
+    public Object uniqueStrings(boolean matches){ return matches ? stats.UniqueStrings(wordMatches, false) : stats.UniqueStrings(wordMap, false); }
+
+    // a snapshot shares the document but not the histogram, so its first call builds one
+    @Override
+    public List<String> getCharactersUsed(boolean firstCall){
+        return firstCall ? stats.Snapshot().GetCharactersUsed(false) : stats.GetCharactersUsed(false);
+    }
+
+    @Override
+    public String getStringFromLine(int n){
+        int line = Math.floorMod(n, Math.max(1, stats.LineCount()));
+        return stats.GetStringFromLine(line, Math.min(line + 1, stats.LineCount() - 1));
+    }
+
+    @Override
+    public String getStringFromWord(int n){
+        int w = Math.floorMod(n, Math.max(1, stats.WordCount()));
+        return stats.GetStringFromWord(w, Math.min(w + 1, stats.WordCount() - 1));
+    }
+
+    @Override
+    public String mappedStringFromLine(long n){
+        long line = Math.floorMod(n, Math.max(1, mapped.LineCount()));
+        return mapped.GetStringFromLine(line, line + 1);
+    }
+
+    @Override
+    public long mappedLineOf(long n){ return mapped.LineOf(Math.floorMod(n, Math.max(1, mapped.ByteCount()))); }
+
+    /** Gets a synthetic file of about the given size, made by repeating the bundled novel line by line.
+     *  It is kept in the temp directory, and reused by later runs */
+    private static String Synthetic(long size){
+        Path synthetic = Paths.get(System.getProperty("java.io.tmpdir"), "stats-bench-" + (size >> 20) + "MB.txt");
+        try{
+            if(Files.exists(synthetic) && Files.size(synthetic) >= size){ return synthetic.toString(); }
+            byte[] source = Files.readAllBytes(Paths.get(SOURCE));
+            try(OutputStream out = Files.newOutputStream(synthetic)){
+                long written = 0;
+                while(written < size){
+                    int length = (int) Math.min(source.length, size - written);
+                    // finish on a whole line
+                    while(length < source.length && length > 0 && source[length - 1] != '\n'){ length++; }
+                    out.write(source, 0, length);
+                    written += length;
+                }
+            }
+            return synthetic.toString();
+        }
+        catch(IOException e){ throw new UncheckedIOException(e); }
+    }
+
+    /** Parses a size such as 10M or 1G, in bytes */
+    private static long ParseSize(String size){
+        char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        long multiplier = unit == 'K' ? 1L << 10 : unit == 'M' ? 1L << 20 : unit == 'G' ? 1L << 30 : 1;
+        String number = multiplier == 1 ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(number) * multiplier;
+    }
+}
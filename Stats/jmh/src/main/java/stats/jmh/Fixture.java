@@ -0,0 +1,68 @@
+package stats.jmh;
+
+import java.util.List;
+
+/** A document loaded for benchmarking, and the Stats operations run against it.
+ *  <p>Stats is in the default package, which JMH benchmarks cannot be and which classes in a
+ *  package cannot name. The default package StatsFixture implements this, is created once by
+ *  name when a benchmark is set up, and is then called directly, so no reflection is timed.</p>
+ */
+public interface Fixture{
+
+    /** Loads a fixture, which is set up before any of the operations are run
+     * @param file A path relative to the Stats directory, or the size of a synthetic file
+     *             made by repeating the bundled novel, such as 10M, 100M or 1G
+     */
+    void load(String file);
+
+    /** Loads the fixture again from its file, see Stats.Initialise */
+    Object initialise();
+
+    /** Loads the fixture again from its file line by line, see Stats.InitialiseWithScanner */
+    Object initialiseWithScanner();
+
+    /** Memory maps the fixture's file and indexes its lines and words, see ByteDocument */
+    Object loadMapped();
+
+    /** Counts the most common word, as a regex or as a whole word, see Stats.CountOcurranceString */
+    int countOcurranceString(boolean wholeWord);
+
+    /** Counts the 100 most common words in one pass, see Stats.StringsCount */
+    Object stringsCount();
+
+    /** Maps every run of word characters by where it starts, see Stats.MapFromRegex */
+    Object mapFromRegex();
+
+    /** Finds every run of word characters without making a String for each, see Stats.MatchesFromRegex */
+    Object matchesFromRegex();
+
+    /** Makes the runs of word characters unique, case insensitive, see Stats.UniqueStrings
+     * @param matches Should the runs be taken from a MatchList? If not, from the TreeMap of MapFromRegex
+     */
+    Object uniqueStrings(boolean matches);
+
+    /** Gets the characters used, case insensitive, see Stats.GetCharactersUsed
+     * @param firstCall Should the character histogram be built? If not, the one built by an earlier call is used
+     */
+    List<String> getCharactersUsed(boolean firstCall);
+
+    /** Gets the text of a line, see Stats.GetStringFromLine
+     * @param n Any number, which is wrapped to a line of the document
+     */
+    String getStringFromLine(int n);
+
+    /** Gets the text of a pair of words, see Stats.GetStringFromWord
+     * @param n Any number, which is wrapped to a word of the document
+     */
+    String getStringFromWord(int n);
+
+    /** Gets the text of a line of the memory mapped file, see ByteDocument.GetStringFromLine
+     * @param n Any number, which is wrapped to a line of the file
+     */
+    String mappedStringFromLine(long n);
+
+    /** Finds the line a byte of the memory mapped file is on, see ByteDocument.LineOf
+     * @param n Any number, which is wrapped to a byte of the file
+     */
+    long mappedLineOf(long n);
+}
@@ -0,0 +1,31 @@
+package stats.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** JMH benchmark of the original Scanner loader, to compare against StatsBenchmark.initialise
+ *  <p>The Scanner loader copies the whole document for every line, so it is only run on the bundled texts.
+ *  Run from the Stats directory as StatsBenchmark is.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark{
+
+    @Param({ "test.txt", "pride-and-prej.txt" })
+    public String file;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void load() throws ReflectiveOperationException{
+        fixture = (Fixture) Class.forName("StatsFixture").getDeclaredConstructor().newInstance();
+        fixture.load(file);
+    }
+
+    @Benchmark
+    public Object initialiseWithScanner(){ return fixture.initialiseWithScanner(); }
+}
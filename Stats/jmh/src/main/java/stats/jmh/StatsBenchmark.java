@@ -0,0 +1,86 @@
+package stats.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** JMH benchmarks of the hot paths of Stats, over the bundled texts and synthetic larger files
+ *  <p>Build with 'mvn -B package' and run from the Stats directory, where the fixtures are found:<br>
+ *  java -jar jmh/target/benchmarks.jar -prof gc<br>
+ *  Throughput is reported in operations per second, and '-prof gc' adds the bytes allocated per
+ *  operation and the allocation rate. '-p file=10M' limits a run to one fixture.</p>
+ *  <p>Synthetic files are made by repeating pride-and-prej.txt and kept in the temp directory for
+ *  reuse, see StatsFixture. The document, its indices and the copy Initialise reads are all held at once,
+ *  about four times the file in heap, so each fork is given a heap large enough for the 1G file.
+ *  The Scanner loader is benchmarked on the bundled texts only, see ScannerBenchmark.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class StatsBenchmark{
+
+    @Param({ "test.txt", "pride-and-prej.txt", "10M", "100M", "1G" })
+    public String file;
+
+    private Fixture fixture;
+
+    /** The line or word each call of GetStringFromLine or GetStringFromWord starts at, moving on by a prime each call */
+    @State(Scope.Thread)
+    public static class Cursor{
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void load() throws ReflectiveOperationException{
+        fixture = (Fixture) Class.forName("StatsFixture").getDeclaredConstructor().newInstance();
+        fixture.load(file);
+    }
+
+    @Benchmark
+    public Object initialise(){ return fixture.initialise(); }
+
+    @Benchmark
+    public Object loadMapped(){ return fixture.loadMapped(); }
+
+    @Benchmark
+    public int countOcurranceString(){ return fixture.countOcurranceString(false); }
+
+    @Benchmark
+    public int countOcurranceStringWholeWord(){ return fixture.countOcurranceString(true); }
+
+    @Benchmark
+    public Object stringsCount(){ return fixture.stringsCount(); }
+
+    @Benchmark
+    public Object mapFromRegex(){ return fixture.mapFromRegex(); }
+
+    @Benchmark
+    public Object matchesFromRegex(){ return fixture.matchesFromRegex(); }
+
+    @Benchmark
+    public Object uniqueStrings(){ return fixture.uniqueStrings(false); }
+
+    @Benchmark
+    public Object uniqueStringsMatchList(){ return fixture.uniqueStrings(true); }
+
+    @Benchmark
+    public List<String> getCharactersUsed(){ return fixture.getCharactersUsed(false); }
+
+    @Benchmark
+    public List<String> getCharactersUsedFirstCall(){ return fixture.getCharactersUsed(true); }
+
+    @Benchmark
+    public String getStringFromLine(Cursor cursor){ return fixture.getStringFromLine(cursor.next += 7919); }
+
+    @Benchmark
+    public String getStringFromWord(Cursor cursor){ return fixture.getStringFromWord(cursor.next += 7919); }
+
+    @Benchmark
+    public String mappedStringFromLine(Cursor cursor){ return fixture.mappedStringFromLine(cursor.next += 7919); }
+
+    @Benchmark
+    public long mappedLineOf(Cursor cursor){ return fixture.mappedLineOf(cursor.next += 104729); }
+}